@@ -0,0 +1,215 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Sorting a batch of arrays for throughput
+ *
+ * When there are many small or medium arrays,
+ * sorting them one by one with a parallel sort is slow.
+ * Barrier synchronization and thread creation costs dominate for each array.
+ *
+ * sortAll method divides the arrays into two groups:
+ *   large arrays: an array is large if it has at least as many elements as
+ *     a thread gets from the whole batch (total elements / number of threads).
+ *     large arrays are sorted one after another by MergeSortWithBarriersDTM2.
+ *     all of them share one auxiliary array that is as long as the largest one.
+ *   small arrays: they are distributed to the threads before sorting starts.
+ *     each thread sorts its arrays sequentially with Arrays.sort, one array at a time.
+ *
+ * Distribution of small arrays (bin packing):
+ *   arrays are assigned from the largest to the smallest.
+ *   each array is given to the thread with the least load so far.
+ *   the load of an array with n elements is estimated as n*log(n).
+ *
+ * Threads check the SortController between arrays.
+ *
+ * @author Ahmet Uyar
+ */
+import java.util.Arrays;
+
+public class BatchMergeSort extends Thread {
+
+	// arrays shorter than this are never sorted with the parallel engine
+	static final int MIN_PARALLEL_LENGTH = 1 << 16;
+
+    private long arrays[][];
+    // indexes of the arrays of all threads, this thread sorts assigned[firstAssigned, lastAssigned)
+    private int assigned[];
+    private int firstAssigned;
+    private int lastAssigned;
+    private SortController controller;
+    private Throwable failure;
+
+    public BatchMergeSort(int threadID, long arrays[][], int assigned[], int firstAssigned, int lastAssigned, 
+            SortController controller) {
+        super("thread " + threadID);
+        this.arrays = arrays;
+        this.assigned = assigned;
+        this.firstAssigned = firstAssigned;
+        this.lastAssigned = lastAssigned;
+        this.controller = controller;
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (int i = firstAssigned; i < lastAssigned; i++) {
+                controller.checkpoint();
+                Arrays.sort(arrays[assigned[i]]);
+            }
+        } catch (Throwable ex) {
+            failure = ex;
+        }
+    }
+
+    /**
+     * sort all arrays using all available processors
+     * @param arrays arrays to be sorted. each one is sorted independently.
+     */
+    public static void sortAll(long arrays[][]) {
+        sortAll(arrays, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * sort all arrays
+     * @param arrays arrays to be sorted. each one is sorted independently.
+     * @param numberOfThreads user specifies the number of threads that will sort
+     */
+    public static void sortAll(long arrays[][], int numberOfThreads) {
+        sortAll(arrays, numberOfThreads, new SortController());
+    }
+
+    /**
+     * sort all arrays, the sort can be cancelled through the given controller
+     * throws CancellationException if the sort is cancelled or its deadline passes
+     * @param arrays arrays to be sorted. each one is sorted independently.
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param controller cancellation and deadline of this batch
+     */
+    public static void sortAll(long arrays[][], int numberOfThreads, SortController controller) {
+        if(numberOfThreads <= 0)
+            throw new IllegalArgumentException("number of threads must be positive: " + numberOfThreads);
+
+        long totalElements = 0;
+        for (int i = 0; i < arrays.length; i++) {
+            totalElements += arrays[i].length;
+        }
+        long share = totalElements / numberOfThreads;
+
+        // divide arrays into large and small ones
+        Integer small[] = new Integer[arrays.length];
+        int numberOfSmall = 0;
+        int large[] = new int[arrays.length];
+        int numberOfLarge = 0;
+        int longestLarge = 0;
+        for (int i = 0; i < arrays.length; i++) {
+            int length = arrays[i].length;
+            if(numberOfThreads > 1 && length >= share && length >= MIN_PARALLEL_LENGTH) {
+                large[numberOfLarge++] = i;
+                longestLarge = Math.max(longestLarge, length);
+            } else {
+                small[numberOfSmall++] = i;
+            }
+        }
+
+        // large arrays are sorted by all threads, one after another, with one shared auxiliary array
+        if(numberOfLarge > 0) {
+            long aux[] = new long[longestLarge];
+            for (int i = 0; i < numberOfLarge; i++) {
+                controller.checkpoint();
+                MergeSortWithBarriersDTM2.parallelMergeSort(arrays[large[i]], aux, numberOfThreads, controller);
+            }
+        }
+
+        if(numberOfSmall == 0)
+            return;
+
+        // small arrays are assigned to threads from the largest to the smallest,
+        // each one to the thread with the least load
+        Arrays.sort(small, 0, numberOfSmall, (i1, i2) -> Integer.compare(arrays[i2].length, arrays[i1].length));
+
+        // owner thread of each small array, then all assignments in one array ordered by thread
+        int owners[] = new int[numberOfSmall];
+        int numberOfAssigned[] = new int[numberOfThreads];
+        double loads[] = new double[numberOfThreads];
+        for (int i = 0; i < numberOfSmall; i++) {
+            int least = 0;
+            for (int t = 1; t < numberOfThreads; t++) {
+                if(loads[t] < loads[least])
+                    least = t;
+            }
+            int length = arrays[small[i]].length;
+            loads[least] += length * (Math.log(length + 2) / Math.log(2));
+            owners[i] = least;
+            numberOfAssigned[least]++;
+        }
+        int starts[] = new int[numberOfThreads + 1];
+        for (int t = 0; t < numberOfThreads; t++) {
+            starts[t+1] = starts[t] + numberOfAssigned[t];
+        }
+        int assigned[] = new int[numberOfSmall];
+        int next[] = Arrays.copyOf(starts, numberOfThreads);
+        for (int i = 0; i < numberOfSmall; i++) {
+            assigned[next[owners[i]]++] = small[i];
+        }
+
+        BatchMergeSort threads[] = new BatchMergeSort[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new BatchMergeSort(i, arrays, assigned, starts[i], starts[i+1], controller);
+            threads[i].start();
+        }
+
+        controller.joinAll(threads);
+
+        Throwable failures[] = new Throwable[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            failures[i] = threads[i].failure;
+        }
+        SortController.rethrow(failures);
+    }
+
+    public static void main(String args[]) {
+        int numberOfThreads = Runtime.getRuntime().availableProcessors();
+        int numberOfArrays = 500;
+        java.util.Random r = new java.util.Random(10);
+
+        long arrays[][] = new long[numberOfArrays][];
+        long arrays2[][] = new long[numberOfArrays][];
+        for (int i = 0; i < numberOfArrays; i++) {
+            arrays[i] = new long[10000 + r.nextInt(190000)];
+            MergeSortUtil.arrayInit(arrays[i], i);
+            arrays2[i] = arrays[i].clone();
+        }
+
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < numberOfArrays; i++) {
+            Arrays.sort(arrays2[i]); // system sequential sort, one array at a time
+        }
+        long duration = System.currentTimeMillis() - startTime;
+        System.out.println("system sorting time: "+duration);
+
+        startTime = System.currentTimeMillis();
+        sortAll(arrays, numberOfThreads);
+        duration = System.currentTimeMillis() - startTime;
+        System.out.println("batch sorting time: "+duration);
+
+        for (int i = 0; i < numberOfArrays; i++) {
+            if(!Arrays.equals(arrays[i], arrays2[i]))
+                System.out.println("array " + i + " is not sorted.");
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Parallel sort for arrays where no element is far from its sorted position
+ * 
+ * If every element is at most k positions away from its sorted position, 
+ * the array can be sorted in O(n*log(k)) time: 
+ *   1. the array is divided into blocks with at least k elements. each thread sorts its blocks. 
+ *   2. then each element belongs to its own block or to a neighbour block. 
+ *      neighbour blocks are merged in two phases with MergeSortUtil.merge: 
+ *        first, blocks (0,1), (2,3), (4,5), ... 
+ *        then, blocks (1,2), (3,4), (5,6), ... 
+ *      the pairs of a phase are merged by all threads in parallel. 
+ *      a pair is not merged if the last element of the first block is not larger than 
+ *      the first element of the second block. 
+ *   3. the phases are repeated until no pair is merged. 
+ *      for arrays with a displacement of at most k, elements move at most one block, so few rounds are needed. 
+ *      arrays with larger displacements are also sorted correctly, only more rounds are needed. 
+ * 
+ * Online class sorts a stream with a buffer of k+1 elements: 
+ *   every new element is added to a min-heap. when the heap is full, the smallest element is given out. 
+ *   if an element comes more than k positions late, IllegalStateException is thrown. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+public class BoundedDisorderSort extends Thread {
+	
+	// blocks are not shorter than this, so that sorting and merging blocks is not dominated by synchronization
+	static final int MIN_BLOCK_SIZE = 1 << 12;
+	
+    private int threadID;
+    private CyclicBarrier barrier;
+    private long array[];
+    private long aux[];
+    private int blockSize;
+    private int numberOfThreads;
+    // the last round in which a pair of blocks has been merged
+    private AtomicInteger changedRound;
+    private Throwable failure;
+    
+    public BoundedDisorderSort(int threadID, CyclicBarrier barrier, long array[], long aux[], int blockSize, 
+    		int numberOfThreads, AtomicInteger changedRound) {
+        super("thread " + threadID);
+        this.threadID = threadID;
+        this.barrier = barrier;
+        this.array = array;
+        this.aux = aux;
+        this.blockSize = blockSize;
+        this.numberOfThreads = numberOfThreads;
+        this.changedRound = changedRound;
+    }
+    
+    @Override
+    public void run() {
+    	try {
+    		int numberOfBlocks = (array.length + blockSize - 1) / blockSize;
+    		
+    		// each thread sorts its blocks
+    		int firstBlock = (int)((long)numberOfBlocks * threadID / numberOfThreads);
+    		int lastBlock = (int)((long)numberOfBlocks * (threadID+1) / numberOfThreads);
+    		for (int b = firstBlock; b < lastBlock; b++) {
+    			Arrays.sort(array, b * blockSize, Math.min(array.length, (b+1) * blockSize));
+    		}
+    		barrier.await();
+    		
+    		for (int round = 1; ; round++) {
+    			for (int phase = 0; phase < 2; phase++) {
+    				// pairs (phase, phase+1), (phase+2, phase+3), ...
+    				int numberOfPairs = (numberOfBlocks - phase) / 2;
+    				int firstPair = (int)((long)numberOfPairs * threadID / numberOfThreads);
+    				int lastPair = (int)((long)numberOfPairs * (threadID+1) / numberOfThreads);
+    				for (int p = firstPair; p < lastPair; p++) {
+    					int start = (phase + 2*p) * blockSize;
+    					int second = start + blockSize;
+    					int last = Math.min(array.length, second + blockSize);
+    					// blocks that are already in order are not merged
+    					if(array[second-1] > array[second]) {
+    						MergeSortUtil.merge(array, aux, start, second, last);
+    						changedRound.accumulateAndGet(round, Math::max);
+    					}
+    				}
+    				barrier.await();
+    			}
+    			if(changedRound.get() < round)
+    				break;
+    		}
+    	} catch (BrokenBarrierException ex) {
+    		// another thread has failed, its failure is reported
+    		failure = ex;
+    	} catch (Throwable ex) {
+    		failure = ex;
+    		SortController.breakBarrier(barrier);
+    	}
+    }
+    
+    /**
+     * sort an array whose elements are at most k positions away from their sorted positions
+     * other arrays are also sorted, but slower
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param k maximum displacement of an element
+     * @param numberOfThreads user specifies the number of threads that will sort
+     */
+    public static void sort(long array[], int k, int numberOfThreads) {
+    	if(k < 0)
+    		throw new IllegalArgumentException("displacement can not be negative: " + k);
+    	if(array.length < 2)
+    		return;
+    	
+    	int blockSize = Math.min(array.length, Math.max(k, MIN_BLOCK_SIZE));
+    	long aux[] = new long[array.length];
+    	AtomicInteger changedRound = new AtomicInteger();
+    	CyclicBarrier barrier = new CyclicBarrier(numberOfThreads);
+    	
+    	BoundedDisorderSort threads[] = new BoundedDisorderSort[numberOfThreads];
+    	for (int i = 0; i < threads.length; i++) {
+    		threads[i] = new BoundedDisorderSort(i, barrier, array, aux, blockSize, numberOfThreads, changedRound);
+    		threads[i].start();
+    	}
+    	
+    	new SortController().joinAll(threads);
+    	Throwable failures[] = new Throwable[numberOfThreads];
+    	for (int i = 0; i < threads.length; i++) {
+    		failures[i] = threads[i].failure;
+    	}
+    	SortController.rethrow(failures);
+    }
+    
+    /**
+     * sorts a stream of elements that are at most k positions away from their sorted positions
+     * sorted elements are given to the next consumer as soon as they are known
+     */
+    public static class Online implements LongConsumer {
+    	private final long heap[];
+    	private final LongConsumer next;
+    	private int size;
+    	private boolean started;
+    	private long lastOutput;
+    	
+    	/**
+    	 * @param k maximum displacement of an element
+    	 * @param next receives the sorted elements
+    	 */
+    	public Online(int k, LongConsumer next) {
+    		if(k < 0)
+    			throw new IllegalArgumentException("displacement can not be negative: " + k);
+    		this.heap = new long[k + 1];
+    		this.next = next;
+    	}
+    	
+    	@Override
+    	public void accept(long value) {
+    		if(size == heap.length)
+    			output(removeMin());
+    		// add to the heap
+    		int i = size++;
+    		while(i > 0 && heap[(i-1)/2] > value) {
+    			heap[i] = heap[(i-1)/2];
+    			i = (i-1)/2;
+    		}
+    		heap[i] = value;
+    	}
+    	
+    	/**
+    	 * give out the elements left in the buffer, at the end of the stream
+    	 */
+    	public void finish() {
+    		while(size > 0)
+    			output(removeMin());
+    	}
+    	
+    	private void output(long value) {
+    		if(started && value < lastOutput)
+    			throw new IllegalStateException("an element is more than " + (heap.length - 1) 
+    					+ " positions away from its sorted position: " + value + " after " + lastOutput);
+    		started = true;
+    		lastOutput = value;
+    		next.accept(value);
+    	}
+    	
+    	private long removeMin() {
+    		long min = heap[0];
+    		long value = heap[--size];
+    		int i = 0;
+    		while(true) {
+    			int child = 2*i + 1;
+    			if(child >= size)
+    				break;
+    			if(child+1 < size && heap[child+1] < heap[child])
+    				child++;
+    			if(heap[child] >= value)
+    				break;
+    			heap[i] = heap[child];
+    			i = child;
+    		}
+    		heap[i] = value;
+    		return min;
+    	}
+    }
+    
+    public static void main(String args[]) {
+    	int numberOfThreads = 4;
+    	int arraySize = 8000003;
+    	int k = 10000;
+    	long array[] = new long[arraySize];
+    	long array2[] = new long[arraySize];
+    	
+    	// timestamps that arrive late by at most k positions
+    	WorkloadGenerator.fill(array, WorkloadGenerator.Distribution.SORTED, 20, numberOfThreads);
+    	java.util.Random r = new java.util.Random(20);
+    	for (int i = 0; i + k < arraySize; i += k) {
+    		for (int j = 0; j < k/2; j++) {
+    			int x = i + r.nextInt(k), y = i + r.nextInt(k);
+    			long temp = array[x];
+    			array[x] = array[y];
+    			array[y] = temp;
+    		}
+    	}
+    	System.arraycopy(array, 0, array2, 0, arraySize);
+    	
+    	long startTime = System.currentTimeMillis();
+    	MergeSortWithBarriersDTM2.parallelMergeSort(array2, numberOfThreads);
+    	long duration = System.currentTimeMillis() - startTime;
+    	System.out.println("parallel merge sort: " + duration);
+    	
+    	startTime = System.currentTimeMillis();
+    	sort(array, k, numberOfThreads);
+    	duration = System.currentTimeMillis() - startTime;
+    	System.out.println("bounded disorder sort: " + duration);
+    	MergeSortUtil.isSorted(array);
+    }
+}
@@ -0,0 +1,352 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Parallel lexicographic sort of rows that are stored as columns
+ * 
+ * Rows are kept in several long arrays, one array for each column. 
+ * Rows are sorted by the first column, then by the second column for equal first columns, and so on. 
+ * No row objects are created: 
+ *   a permutation of row indexes is sorted, and the first column is carried with it as the key. 
+ *   comparisons look at the other columns only when the keys are equal. 
+ *   since the keys move together with the row indexes, 
+ *   most comparisons read consecutive memory instead of random rows. 
+ * 
+ * The sort has the same structure as MergeSortWithBarriersDTM2.java class: 
+ *   each thread sorts its block with a sequential merge sort. 
+ *   each merge operation is handled by two threads, one merges mins and the other one merges maxes. 
+ * The sort is stable. Equal rows stay in their original order. 
+ * 
+ * After sorting, each thread copies a range of rows of all columns to the output columns (gather). 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+public class ColumnarMergeSort extends Thread {
+	
+	// ranges shorter than this are sorted by insertion sort
+	static final int INSERTION_THRESHOLD = 16;
+	
+    private int threadID;
+    private CyclicBarrier barrier;
+    private long columns[][];
+    private long outputs[][];
+    private long keys[];
+    private int rows[];
+    private long auxKeys[];
+    private int auxRows[];
+    private int numberOfThreads;
+    private SortController controller;
+    private Throwable failure;
+ 
+    /**
+     * @param keys values of the first column, in the order of rows
+     * @param rows row indexes to be sorted
+     * @param outputs sorted columns are written to these arrays, null if only the permutation is needed
+     */
+    public ColumnarMergeSort(int threadID, CyclicBarrier barrier, long columns[][], long outputs[][], 
+    		long keys[], int rows[], long auxKeys[], int auxRows[], int numberOfThreads, SortController controller) {
+        super("thread " + threadID);
+        this.threadID = threadID;
+        this.barrier = barrier;
+        this.columns = columns;
+        this.outputs = outputs;
+        this.keys = keys;
+        this.rows = rows;
+        this.auxKeys = auxKeys;
+        this.auxRows = auxRows;
+        this.numberOfThreads = numberOfThreads;
+        this.controller = controller;
+    }  
+
+    @Override
+    public void run() {
+        try {
+        	int length = rows.length;
+            int blockSize = length / numberOfThreads;
+            int first = threadID * blockSize;
+            int last = first + blockSize;
+            if(threadID == numberOfThreads-1)
+                last = length;
+            
+            // each thread sorts its sub array and waits others at the barrier
+            mergeSort(first, last);
+            controller.checkpoint();
+            controller.await(barrier);
+            
+            int numberOfBlocks = numberOfThreads;
+            int activeThreads = (numberOfBlocks%2==0)?numberOfBlocks:numberOfBlocks-1;
+            
+            while(numberOfBlocks>1){
+                if(threadID<activeThreads){
+                	int block = threadID - threadID%2;
+                    int start = block*blockSize;
+                    int second = start+blockSize;
+                    int third = second+blockSize;
+                    if(block+2 == numberOfBlocks)
+                        third = length;
+                    
+                    if(threadID%2 == 0){
+                    	int mergedElements = mergeMins(start, second, third);
+                    	controller.await(barrier);
+                    	System.arraycopy(auxKeys, start, keys, start, mergedElements);
+                    	System.arraycopy(auxRows, start, rows, start, mergedElements);
+                    }else{
+                    	int mergedElements = mergeMaxes(start, second, third);
+                    	controller.await(barrier);
+                    	System.arraycopy(auxKeys, third-mergedElements, keys, third-mergedElements, mergedElements);
+                    	System.arraycopy(auxRows, third-mergedElements, rows, third-mergedElements, mergedElements);
+                    }
+                }else{
+                	// idle looping threads wait to synchronize 
+                    controller.await(barrier);
+                }
+                blockSize *= 2;
+                numberOfBlocks = (int)Math.ceil(numberOfBlocks/2.0);
+                activeThreads = (numberOfBlocks%2==0)?numberOfBlocks:numberOfBlocks-1;
+                controller.checkpoint();
+                controller.await(barrier);
+            }
+            
+            // each thread gathers an equal range of rows from all columns
+            if(outputs != null){
+            	int gatherFirst = (int)((long)length * threadID / numberOfThreads);
+            	int gatherLast = (int)((long)length * (threadID+1) / numberOfThreads);
+            	for (int c = 0; c < columns.length; c++) {
+            		long column[] = columns[c];
+            		long output[] = outputs[c];
+            		for (int i = gatherFirst; i < gatherLast; i++) {
+            			output[i] = column[rows[i]];
+					}
+				}
+            }
+            
+        } catch (BrokenBarrierException ex) {
+            // another thread has failed or the sort is cancelled, its failure is reported
+            failure = ex;
+        } catch (Throwable ex) {
+            failure = ex;
+            SortController.breakBarrier(barrier);
+        }
+    }
+    
+    /**
+     * compare the rows at two positions of the permutation
+     * the keys are compared first, other columns are compared only if the keys are equal
+     */
+    private int compare(int position1, long keys1[], int rows1[], int position2, long keys2[], int rows2[]) {
+    	long key1 = keys1[position1];
+    	long key2 = keys2[position2];
+    	if(key1 != key2)
+    		return (key1 < key2) ? -1 : 1;
+    	
+    	int row1 = rows1[position1];
+    	int row2 = rows2[position2];
+    	for (int c = 1; c < columns.length; c++) {
+    		long value1 = columns[c][row1];
+    		long value2 = columns[c][row2];
+    		if(value1 != value2)
+    			return (value1 < value2) ? -1 : 1;
+		}
+    	return 0;
+    }
+    
+    /**
+     * stable sequential merge sort of a range of the permutation
+     */
+    private void mergeSort(int first, int last) {
+    	if(last - first <= INSERTION_THRESHOLD) {
+    		insertionSort(first, last);
+    		return;
+    	}
+    	int middle = (first + last) >>> 1;
+    	mergeSort(first, middle);
+    	mergeSort(middle, last);
+    	// already in order
+    	if(compare(middle-1, keys, rows, middle, keys, rows) <= 0)
+    		return;
+    	
+    	int index1 = first, index2 = middle, index3 = first;
+    	while(index1 < middle && index2 < last) {
+    		int from = (compare(index1, keys, rows, index2, keys, rows) <= 0) ? index1++ : index2++;
+    		auxKeys[index3] = keys[from];
+    		auxRows[index3++] = rows[from];
+    	}
+    	while(index1 < middle) {
+    		auxKeys[index3] = keys[index1];
+    		auxRows[index3++] = rows[index1++];
+    	}
+    	System.arraycopy(auxKeys, first, keys, first, index3 - first);
+    	System.arraycopy(auxRows, first, rows, first, index3 - first);
+    }
+    
+    private void insertionSort(int first, int last) {
+    	for (int i = first + 1; i < last; i++) {
+    		long key = keys[i];
+    		int row = rows[i];
+    		int j = i - 1;
+    		// the element is kept in the auxiliary arrays so that it can be compared
+    		auxKeys[i] = key;
+    		auxRows[i] = row;
+    		while(j >= first && compare(j, keys, rows, i, auxKeys, auxRows) > 0) {
+    			keys[j+1] = keys[j];
+    			rows[j+1] = rows[j];
+    			j--;
+    		}
+    		keys[j+1] = key;
+    		rows[j+1] = row;
+		}
+    }
+
+    /**
+     * merge the first half of two sorted blocks of the permutation, like MergeSortUtil.mergeMins
+     * on equal rows, the row from the first block is taken first
+     */
+    private int mergeMins(int start1, int start2, int last) {
+    	int index1 = start1;
+    	int index2 = start2;
+    	int index3 = start1;
+    	int elementsToMerge = (last - start1)/2;
+    	
+    	for (int counter = 0; counter < elementsToMerge; counter++) {
+    		int from;
+    		if(index2 >= last || (index1 < start2 && compare(index1, keys, rows, index2, keys, rows) <= 0))
+    			from = index1++;
+    		else
+    			from = index2++;
+    		auxKeys[index3] = keys[from];
+    		auxRows[index3++] = rows[from];
+		}
+    	return (index3-start1);
+    }
+
+    /**
+     * merge the second half of two sorted blocks of the permutation, like MergeSortUtil.mergeMaxes
+     * on equal rows, the row from the second block is taken first, since merging goes backwards
+     */
+    private int mergeMaxes(int start1, int start2, int last) {
+    	int index1 = start2-1;
+    	int index2 = last-1;
+    	int index3 = last-1;
+    	int total = last - start1;
+    	int elementsToMerge = total - total/2;
+    	
+    	for (int counter = 0; counter < elementsToMerge; counter++) {
+    		int from;
+    		if(index2 < start2 || (index1 >= start1 && compare(index1, keys, rows, index2, keys, rows) > 0))
+    			from = index1--;
+    		else
+    			from = index2--;
+    		auxKeys[index3] = keys[from];
+    		auxRows[index3--] = rows[from];
+		}
+    	return (last - index3 -1);
+    }
+
+    /**
+     * sort the rows and return the sorted order of row indexes
+     * @param columns columns of the rows. all columns must have the same length
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @return row indexes in sorted order
+     */
+    public static int[] sortedPermutation(long columns[][], int numberOfThreads) {
+    	return sortRows(columns, null, numberOfThreads);
+    }
+
+    /**
+     * sort the rows and write the sorted columns to the output columns
+     * @param columns columns of the rows. all columns must have the same length. they are not modified.
+     * @param outputs output columns. there must be one output for each column with the same length
+     * @param numberOfThreads user specifies the number of threads that will sort
+     */
+    public static void sort(long columns[][], long outputs[][], int numberOfThreads) {
+    	if(outputs.length != columns.length)
+    		throw new IllegalArgumentException("number of output columns must be " + columns.length);
+    	sortRows(columns, outputs, numberOfThreads);
+    }
+    
+    private static int[] sortRows(long columns[][], long outputs[][], int numberOfThreads) {
+    	if(columns.length == 0)
+    		throw new IllegalArgumentException("there must be at least one column");
+    	int length = columns[0].length;
+    	for (int c = 0; c < columns.length; c++) {
+    		if(columns[c].length != length || (outputs != null && outputs[c].length != length))
+    			throw new IllegalArgumentException("all columns must have " + length + " rows. column " + c + " does not.");
+		}
+    	
+    	long keys[] = columns[0].clone();
+    	int rows[] = new int[length];
+    	for (int i = 0; i < length; i++) {
+			rows[i] = i;
+		}
+    	long auxKeys[] = new long[length];
+    	int auxRows[] = new int[length];
+    	SortController controller = new SortController();
+    	
+    	CyclicBarrier barrier = new CyclicBarrier(numberOfThreads);
+    	
+    	ColumnarMergeSort threads[] = new ColumnarMergeSort[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new ColumnarMergeSort(i, barrier, columns, outputs, keys, rows, auxKeys, auxRows, numberOfThreads, controller);
+            threads[i].start();
+        }
+        
+        controller.joinAll(threads);
+        
+        Throwable failures[] = new Throwable[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            failures[i] = threads[i].failure;
+        }
+        SortController.rethrow(failures);
+        return rows;
+    }
+    
+    public static void main(String args[]){
+        int numberOfThreads = 4;
+        int rows = 4000003;
+        long columns[][] = new long[3][rows];
+        long outputs[][] = new long[3][rows];
+        
+        // few distinct values in the first two columns, so that the later columns are compared
+        java.util.Random r = new java.util.Random(20);
+        for (int i = 0; i < rows; i++) {
+			columns[0][i] = r.nextInt(100);
+			columns[1][i] = r.nextInt(1000);
+			columns[2][i] = r.nextLong();
+		}
+        
+        long startTime = System.currentTimeMillis();
+        sort(columns, outputs, numberOfThreads);
+        long duration = System.currentTimeMillis() - startTime;
+        System.out.println("columnar sorting time: "+duration);
+        
+        for (int i = 0; i < rows-1; i++) {
+        	for (int c = 0; c < 3; c++) {
+        		if(outputs[c][i] < outputs[c][i+1])
+        			break;
+        		if(outputs[c][i] > outputs[c][i+1]) {
+        			System.out.println("not sorted at row " + i);
+        			return;
+        		}
+			}
+		}
+        System.out.println("rows are sorted.");
+    }
+
+}
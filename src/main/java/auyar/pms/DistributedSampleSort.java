@@ -0,0 +1,587 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Sample sort with several worker processes that communicate over sockets
+ * 
+ * When the data does not fit in one JVM, it is sorted by several worker JVMs. 
+ * The coordinator starts the workers as local processes and tells each one which part of the input file it has. 
+ * 
+ * Steps: 
+ *   1. each worker reads its part of the input file and sorts it with MergeSortWithBarriersDTM2. 
+ *   2. each worker sends evenly spaced samples of its sorted part to the coordinator. 
+ *      the coordinator sorts all samples and selects (workers-1) splitters. 
+ *      splitters divide the values into ranges, one range for each worker. 
+ *   3. each worker sends the values of each range to the worker of that range. 
+ *      values equal to a splitter are divided evenly between the ranges on both sides of it. 
+ *      when several splitters are equal, the values equal to them are divided into 
+ *      (number of equal splitters + 1) parts, so heavily duplicated keys are spread over several workers. 
+ *      received ranges are already sorted, since they are parts of sorted arrays. 
+ *   4. each worker reports how many values it received. 
+ *      the coordinator computes the position of each worker in the output file. 
+ *   5. each worker merges its received ranges (k-way merge) and writes them to its position in the output file. 
+ * 
+ * Protocol: 
+ *   all messages are written with DataOutputStream, so numbers are big-endian. 
+ *   registration (worker to coordinator): id, host and port of the worker's data socket 
+ *   assignment (coordinator to worker): input file, first value, number of values, threads, 
+ *     number of workers, hosts and ports of all workers, output file 
+ *   samples (worker to coordinator): number of samples, samples 
+ *   splitters (coordinator to worker): splitters 
+ *   range (worker to worker): sender id, number of values, values 
+ *   count (worker to coordinator): number of received values 
+ *   output position (coordinator to worker): index of the first output value 
+ *   done (worker to coordinator): 0 
+ * 
+ * Workers connect to each other with host names and ports. 
+ * Processes run on one host and use the loopback address, 
+ * but the same protocol can be used with workers on other hosts. 
+ * 
+ * Input and output files contain little endian 64 bit integers, like the binary-le format of SortTool.java. 
+ * 
+ * Failures: 
+ *   every socket has a read timeout (IO_TIMEOUT), so a process that waits for a failed peer does not block forever. 
+ *   a failed worker exits with a non-zero exit code. 
+ *   when the coordinator fails, it stops all worker processes, waits for them, 
+ *   and adds their exit code errors to its own error as suppressed exceptions. 
+ * 
+ * usage: 
+ *   java auyar.pms.DistributedSampleSort [--workers n] [--threads n] input output
+ *   java auyar.pms.DistributedSampleSort demo        sorts a generated file with 3 workers and checks the output
+ * 
+ * @author Ahmet Uyar
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+public class DistributedSampleSort {
+	
+	// number of samples that each worker sends for each worker
+	static final int SAMPLES_PER_RANGE = 64;
+	static final int STREAM_BUFFER_SIZE = 1 << 16;
+	// the coordinator does not wait longer than this for the workers to start, in milliseconds
+	static final int REGISTRATION_TIMEOUT = 60000;
+	// a socket read, accept or connect fails after waiting this long, in milliseconds
+	static final int IO_TIMEOUT = 600000;
+	static final int SEGMENT_SIZE = SortTool.SEGMENT_SIZE;
+	
+	/**
+	 * a connection with buffered data streams
+	 */
+	private static class Connection {
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+		
+		Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), STREAM_BUFFER_SIZE));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), STREAM_BUFFER_SIZE));
+		}
+		
+		void close() throws IOException {
+			socket.close();
+		}
+	}
+	
+	/**
+	 * iterates over a range of a sorted array
+	 */
+	private static class ArrayRun implements PrimitiveIterator.OfLong {
+		private long array[];
+		private int next;
+		private int last;
+		
+		ArrayRun(long array[], int first, int last) {
+			this.array = array;
+			this.next = first;
+			this.last = last;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return next < last;
+		}
+		
+		@Override
+		public long nextLong() {
+			if(next >= last)
+				throw new NoSuchElementException();
+			return array[next++];
+		}
+	}
+	
+	/**
+	 * a worker thread that receives one range from another worker
+	 */
+	private static class Receiver extends Thread {
+		private ServerSocket server;
+		private long runs[][];
+		private Throwable failure;
+		
+		Receiver(int threadID, ServerSocket server, long runs[][]) {
+			super("receiver " + threadID);
+			setDaemon(true);
+			this.server = server;
+			this.runs = runs;
+		}
+		
+		@Override
+		public void run() {
+			try(Socket socket = server.accept()) {
+				socket.setSoTimeout(IO_TIMEOUT);
+				Connection connection = new Connection(socket);
+				int sender = connection.in.readInt();
+				int count = connection.in.readInt();
+				long run[] = new long[count];
+				for (int i = 0; i < count; i++) {
+					run[i] = connection.in.readLong();
+				}
+				runs[sender] = run;
+			} catch (Throwable ex) {
+				failure = ex;
+			}
+		}
+	}
+	
+	/**
+	 * sort a file with worker processes on this host
+	 * @param input file of little endian 64 bit integers
+	 * @param output sorted values are written to this file, an existing file is replaced
+	 * @param numberOfWorkers number of worker processes
+	 * @param numberOfThreads number of sorting threads in each worker
+	 */
+	public static void sort(File input, File output, int numberOfWorkers, int numberOfThreads) throws IOException, InterruptedException {
+		if(input.length() % 8 != 0)
+			throw new IOException("size of a binary file must be a multiple of 8: " + input.length());
+		long total = input.length() / 8;
+		
+		Process processes[] = new Process[numberOfWorkers];
+		Connection workers[] = new Connection[numberOfWorkers];
+		try {
+			coordinate(input, output, total, numberOfThreads, processes, workers);
+		} catch (Throwable ex) {
+			stopWorkers(processes, workers, ex);
+			throw ex;
+		}
+		IOException error = stopWorkers(processes, workers, null);
+		if(error != null)
+			throw error;
+	}
+	
+	/**
+	 * start the workers and send them the steps of the sort
+	 */
+	private static void coordinate(File input, File output, long total, int numberOfThreads, 
+			Process processes[], Connection workers[]) throws IOException {
+		int numberOfWorkers = processes.length;
+		try(ServerSocket server = new ServerSocket(0, numberOfWorkers, InetAddress.getLoopbackAddress())) {
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			for (int i = 0; i < numberOfWorkers; i++) {
+				processes[i] = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), 
+						DistributedSampleSort.class.getName(), "worker", 
+						server.getInetAddress().getHostAddress(), Integer.toString(server.getLocalPort()), Integer.toString(i))
+						.inheritIO().start();
+			}
+			
+			// registration
+			server.setSoTimeout(REGISTRATION_TIMEOUT);
+			String hosts[] = new String[numberOfWorkers];
+			int ports[] = new int[numberOfWorkers];
+			for (int i = 0; i < numberOfWorkers; i++) {
+				Socket socket = server.accept();
+				socket.setSoTimeout(IO_TIMEOUT);
+				Connection connection = new Connection(socket);
+				int id = connection.in.readInt();
+				workers[id] = connection;
+				hosts[id] = connection.in.readUTF();
+				ports[id] = connection.in.readInt();
+			}
+			
+			// assignment
+			for (int i = 0; i < numberOfWorkers; i++) {
+				long first = total * i / numberOfWorkers;
+				long last = total * (i+1) / numberOfWorkers;
+				DataOutputStream out = workers[i].out;
+				out.writeUTF(input.getAbsolutePath());
+				out.writeLong(first);
+				out.writeInt((int)(last - first));
+				out.writeInt(numberOfThreads);
+				out.writeInt(numberOfWorkers);
+				for (int j = 0; j < numberOfWorkers; j++) {
+					out.writeUTF(hosts[j]);
+					out.writeInt(ports[j]);
+				}
+				out.writeUTF(output.getAbsolutePath());
+				out.flush();
+			}
+			
+			// samples and splitters
+			long samples[] = new long[0];
+			for (int i = 0; i < numberOfWorkers; i++) {
+				DataInputStream in = workers[i].in;
+				int count = in.readInt();
+				int start = samples.length;
+				samples = Arrays.copyOf(samples, start + count);
+				for (int s = 0; s < count; s++) {
+					samples[start + s] = in.readLong();
+				}
+			}
+			long splitters[] = selectSplitters(samples, numberOfWorkers);
+			for (int i = 0; i < numberOfWorkers; i++) {
+				for (int j = 0; j < splitters.length; j++) {
+					workers[i].out.writeLong(splitters[j]);
+				}
+				workers[i].out.flush();
+			}
+			
+			// output positions
+			long counts[] = new long[numberOfWorkers];
+			for (int i = 0; i < numberOfWorkers; i++) {
+				counts[i] = workers[i].in.readLong();
+			}
+			try(RandomAccessFile file = new RandomAccessFile(output, "rw")) {
+				file.setLength(total * 8);
+			}
+			long position = 0;
+			for (int i = 0; i < numberOfWorkers; i++) {
+				workers[i].out.writeLong(position);
+				workers[i].out.flush();
+				position += counts[i];
+			}
+			
+			for (int i = 0; i < numberOfWorkers; i++) {
+				workers[i].in.readInt();
+			}
+		}
+	}
+	
+	/**
+	 * close the connections and wait for the worker processes to exit. 
+	 * if the coordinator failed, the workers are destroyed first 
+	 * and the errors of the workers are added to the failure as suppressed exceptions. 
+	 * @param failure the error of the coordinator or null
+	 * @return the first error of the workers, if failure is null
+	 */
+	private static IOException stopWorkers(Process processes[], Connection workers[], Throwable failure) {
+		if(failure != null)
+			destroyAll(processes);
+		
+		List<IOException> errors = new ArrayList<>();
+		for (int i = 0; i < workers.length; i++) {
+			try {
+				if(workers[i] != null)
+					workers[i].close();
+			} catch (IOException ex) {
+				errors.add(ex);
+			}
+		}
+		boolean interrupted = false;
+		for (int i = 0; i < processes.length; i++) {
+			while(processes[i] != null) {
+				try {
+					int exitCode = processes[i].waitFor();
+					if(exitCode != 0)
+						errors.add(new IOException("worker " + i + " failed with exit code " + exitCode));
+					break;
+				} catch (InterruptedException ex) {
+					// do not leave worker processes behind, wait for them after destroying
+					interrupted = true;
+					destroyAll(processes);
+				}
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+		
+		if(errors.isEmpty())
+			return null;
+		IOException first = errors.get(0);
+		for (int e = 1; e < errors.size(); e++) {
+			first.addSuppressed(errors.get(e));
+		}
+		if(failure == null)
+			return first;
+		failure.addSuppressed(first);
+		return null;
+	}
+	
+	private static void destroyAll(Process processes[]) {
+		for (int i = 0; i < processes.length; i++) {
+			if(processes[i] != null)
+				processes[i].destroyForcibly();
+		}
+	}
+	
+	/**
+	 * select (numberOfRanges-1) evenly spaced values of the sorted samples
+	 */
+	static long[] selectSplitters(long samples[], int numberOfRanges) {
+		Arrays.sort(samples);
+		long splitters[] = new long[numberOfRanges - 1];
+		for (int k = 0; k < splitters.length; k++) {
+			splitters[k] = (samples.length == 0) ? 0 : samples[(int)((long)samples.length * (k+1) / numberOfRanges)];
+		}
+		return splitters;
+	}
+	
+	/**
+	 * range j of the sorted array is [bounds[j], bounds[j+1]). 
+	 * values equal to a group of r equal splitters are divided into (r+1) parts of about the same size, 
+	 * between the (r+1) ranges around the group. 
+	 * a single splitter is a group of one, its equal values are divided between the ranges below and above it. 
+	 */
+	static int[] rangeBounds(long array[], int count, long splitters[]) {
+		int bounds[] = new int[splitters.length + 2];
+		bounds[splitters.length + 1] = count;
+		int k = 0;
+		while(k < splitters.length) {
+			// splitters [k, e) are equal
+			int e = k + 1;
+			while(e < splitters.length && splitters[e] == splitters[k])
+				e++;
+			int low = MergeSortUtil.lowerBound(array, bounds[k], count, splitters[k]);
+			int high = MergeSortUtil.upperBound(array, low, count, splitters[k]);
+			int parts = e - k + 1;
+			for (int r = 1; r < parts; r++) {
+				bounds[k + r] = low + (int)((long)(high - low) * r / parts);
+			}
+			k = e;
+		}
+		return bounds;
+	}
+	
+	/**
+	 * the worker process: connects to the coordinator and follows its steps
+	 */
+	static void work(String coordinatorHost, int coordinatorPort, int id) throws IOException, InterruptedException {
+		try(ServerSocket dataServer = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+				Socket socket = connect(coordinatorHost, coordinatorPort)) {
+			dataServer.setSoTimeout(IO_TIMEOUT);
+			Connection coordinator = new Connection(socket);
+			coordinator.out.writeInt(id);
+			coordinator.out.writeUTF(dataServer.getInetAddress().getHostAddress());
+			coordinator.out.writeInt(dataServer.getLocalPort());
+			coordinator.out.flush();
+			
+			DataInputStream in = coordinator.in;
+			File input = new File(in.readUTF());
+			long first = in.readLong();
+			int count = in.readInt();
+			int numberOfThreads = in.readInt();
+			int numberOfWorkers = in.readInt();
+			String hosts[] = new String[numberOfWorkers];
+			int ports[] = new int[numberOfWorkers];
+			for (int j = 0; j < numberOfWorkers; j++) {
+				hosts[j] = in.readUTF();
+				ports[j] = in.readInt();
+			}
+			File output = new File(in.readUTF());
+			
+			// sort the local part
+			long array[] = readRange(input, first, count);
+			MergeSortWithBarriersDTM2.parallelMergeSort(array, numberOfThreads);
+			
+			int numberOfSamples = Math.min(count, SAMPLES_PER_RANGE * numberOfWorkers);
+			coordinator.out.writeInt(numberOfSamples);
+			for (int s = 0; s < numberOfSamples; s++) {
+				coordinator.out.writeLong(array[(int)((long)count * s / numberOfSamples)]);
+			}
+			coordinator.out.flush();
+			
+			long splitters[] = new long[numberOfWorkers - 1];
+			for (int j = 0; j < splitters.length; j++) {
+				splitters[j] = in.readLong();
+			}
+			int bounds[] = rangeBounds(array, count, splitters);
+			
+			// exchange ranges. receivers run while this thread sends
+			long runs[][] = new long[numberOfWorkers][];
+			Receiver receivers[] = new Receiver[numberOfWorkers - 1];
+			for (int i = 0; i < receivers.length; i++) {
+				receivers[i] = new Receiver(i, dataServer, runs);
+				receivers[i].start();
+			}
+			for (int k = 1; k < numberOfWorkers; k++) {
+				int j = (id + k) % numberOfWorkers;
+				try(Socket peer = connect(hosts[j], ports[j])) {
+					Connection connection = new Connection(peer);
+					connection.out.writeInt(id);
+					connection.out.writeInt(bounds[j+1] - bounds[j]);
+					for (int i = bounds[j]; i < bounds[j+1]; i++) {
+						connection.out.writeLong(array[i]);
+					}
+					connection.out.flush();
+				}
+			}
+			new SortController().joinAll(receivers);
+			Throwable failures[] = new Throwable[receivers.length];
+			for (int i = 0; i < receivers.length; i++) {
+				failures[i] = receivers[i].failure;
+				if(failures[i] instanceof IOException)
+					throw (IOException)failures[i];
+			}
+			SortController.rethrow(failures);
+			
+			PrimitiveIterator.OfLong iterators[] = new PrimitiveIterator.OfLong[numberOfWorkers];
+			long received = 0;
+			for (int j = 0; j < numberOfWorkers; j++) {
+				iterators[j] = (j == id) ? new ArrayRun(array, bounds[id], bounds[id+1]) : new ArrayRun(runs[j], 0, runs[j].length);
+				received += (j == id) ? bounds[id+1] - bounds[id] : runs[j].length;
+			}
+			coordinator.out.writeLong(received);
+			coordinator.out.flush();
+			long position = in.readLong();
+			
+			// merge the ranges directly into the output file
+			try(RandomAccessFile file = new RandomAccessFile(output, "rw")) {
+				FileChannel channel = file.getChannel();
+				ByteBuffer buffer = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				long filePosition[] = {position * 8};
+				IOException error[] = new IOException[1];
+				SortedRunCodec.merge(iterators, value -> {
+					buffer.putLong(value);
+					if(!buffer.hasRemaining() && error[0] == null)
+						error[0] = flush(channel, buffer, filePosition);
+				});
+				if(error[0] == null)
+					error[0] = flush(channel, buffer, filePosition);
+				if(error[0] != null)
+					throw error[0];
+			}
+			
+			coordinator.out.writeInt(0);
+			coordinator.out.flush();
+		}
+	}
+	
+	/**
+	 * connect to a host with the connect and read timeouts
+	 */
+	private static Socket connect(String host, int port) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), IO_TIMEOUT);
+			socket.setSoTimeout(IO_TIMEOUT);
+			return socket;
+		} catch (IOException ex) {
+			socket.close();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * write the buffer to the file and clear it
+	 * @return the error, if writing fails
+	 */
+	private static IOException flush(FileChannel channel, ByteBuffer buffer, long filePosition[]) {
+		try {
+			buffer.flip();
+			while(buffer.hasRemaining())
+				filePosition[0] += channel.write(buffer, filePosition[0]);
+			buffer.clear();
+			return null;
+		} catch (IOException ex) {
+			buffer.clear();
+			return ex;
+		}
+	}
+	
+	/**
+	 * read count values starting from the value with the index first
+	 */
+	private static long[] readRange(File input, long first, int count) throws IOException {
+		long array[] = new long[count];
+		try(RandomAccessFile file = new RandomAccessFile(input, "r")) {
+			FileChannel channel = file.getChannel();
+			int segmentLength = SEGMENT_SIZE / 8;
+			for (int index = 0; index < count; index += segmentLength) {
+				int length = Math.min(segmentLength, count - index);
+				MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, (first + index) * 8, length * 8L);
+				segment.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(array, index, length);
+			}
+		}
+		return array;
+	}
+	
+	public static void main(String args[]) throws IOException, InterruptedException {
+		if(args.length == 4 && args[0].equals("worker")) {
+			work(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+			return;
+		}
+		
+		if(args.length == 1 && args[0].equals("demo")) {
+			int arraySize = 8000003;
+			long array[] = new long[arraySize];
+			MergeSortUtil.arrayInit(array, 20);
+			File input = File.createTempFile("pms-input", ".bin");
+			File output = File.createTempFile("pms-output", ".bin");
+			input.deleteOnExit();
+			output.deleteOnExit();
+			SortTool.write(input.toPath(), array, SortTool.Format.BINARY_LE, 4);
+			
+			long startTime = System.currentTimeMillis();
+			sort(input, output, 3, 2);
+			long duration = System.currentTimeMillis() - startTime;
+			System.out.println("distributed sorting time: " + duration);
+			
+			Arrays.sort(array);
+			long sorted[] = SortTool.read(output.toPath(), SortTool.Format.BINARY_LE, 4);
+			System.out.println(Arrays.equals(array, sorted) ? "output is sorted." : "output is not sorted.");
+			return;
+		}
+		
+		int numberOfWorkers = 4;
+		int numberOfThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / numberOfWorkers);
+		int a = 0;
+		for (; a < args.length - 2; a += 2) {
+			if(args[a].equals("--workers"))
+				numberOfWorkers = Integer.parseInt(args[a+1]);
+			else if(args[a].equals("--threads"))
+				numberOfThreads = Integer.parseInt(args[a+1]);
+			else
+				break;
+		}
+		if(args.length - a != 2 || numberOfWorkers <= 0 || numberOfThreads <= 0) {
+			System.out.println("usage: java auyar.pms.DistributedSampleSort [--workers n] [--threads n] input output");
+			System.exit(1);
+		}
+		
+		long startTime = System.currentTimeMillis();
+		sort(new File(args[a]), new File(args[a+1]), numberOfWorkers, numberOfThreads);
+		long duration = System.currentTimeMillis() - startTime;
+		System.out.println("distributed sorting time: " + duration);
+	}
+}
@@ -0,0 +1,293 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Static search index over a sorted long array
+ * 
+ * Binary search on a large sorted array makes one cache miss at almost every step, 
+ * since consecutive probes are far from each other. 
+ * This index stores the sorted values in Eytzinger (breadth first) order: 
+ *   the root of the implicit binary search tree is at index 1, 
+ *   the children of the node at index k are at indexes 2k and 2k+1. 
+ * The first levels of the tree are in a few cache lines and stay in cache, 
+ * and the descent does not branch on comparisons. 
+ * 
+ * Building the index: 
+ *   the tree is filled by an in-order traversal. 
+ *   the subtree of a node is filled by the consecutive sorted values. 
+ *   so after computing the size of the left subtree, two subtrees can be filled independently. 
+ *   BuildTask forks subtrees with ForkJoin framework, like MergeSortWithForkJoinSTM2.java class. 
+ *   every value is copied once. 
+ *  
+ * Searching: 
+ *   lowerBound returns the index of the first value that is not less than the key in the sorted array. 
+ *   rank returns the number of values that are less than or equal to the key. 
+ *   batch lowerBound method descends the tree for several keys at the same time, 
+ *   so that their cache misses overlap. Java does not have a prefetch instruction, 
+ *   so this is the way to keep several memory accesses in flight. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class EytzingerIndex {
+	
+	// subtrees smaller than this are filled sequentially
+	static final int SEQUENTIAL_THRESHOLD = 1 << 15;
+	
+	// number of keys that descend the tree together in batch lookups
+	static final int BATCH = 8;
+
+    private long tree[];
+    private int size;
+    private int height;
+
+    private EytzingerIndex(long tree[], int size) {
+        this.tree = tree;
+        this.size = size;
+        this.height = (size == 0) ? 0 : 31 - Integer.numberOfLeadingZeros(size);
+    }
+
+    /**
+     * fills the subtree of a node with consecutive sorted values
+     */
+    private static class BuildTask extends RecursiveAction {
+        private EytzingerIndex index;
+        private long sorted[];
+        private int node;
+        private int offset;
+
+        BuildTask(EytzingerIndex index, long sorted[], int node, int offset) {
+            this.index = index;
+            this.sorted = sorted;
+            this.node = node;
+            this.offset = offset;
+        }
+
+        @Override
+        protected void compute() {
+            if(index.subtreeSize(node) < SEQUENTIAL_THRESHOLD) {
+                index.fill(sorted, node, offset);
+                return;
+            }
+            int leftSize = index.subtreeSize(2L*node);
+            index.tree[node] = sorted[offset + leftSize];
+            invokeAll(new BuildTask(index, sorted, 2*node, offset), 
+                      new BuildTask(index, sorted, 2*node+1, offset + leftSize + 1));
+        }
+    }
+
+    /**
+     * fill the subtree of a node sequentially by in-order traversal
+     * returns the index of the next sorted value
+     */
+    private int fill(long sorted[], long node, int next) {
+        if(node <= size) {
+            next = fill(sorted, 2*node, next);
+            tree[(int)node] = sorted[next++];
+            next = fill(sorted, 2*node+1, next);
+        }
+        return next;
+    }
+
+    /**
+     * number of nodes in the subtree of a node
+     * all levels of the subtree are full except the last level of the tree
+     */
+    int subtreeSize(long node) {
+        if(node > size)
+            return 0;
+        int depth = 63 - Long.numberOfLeadingZeros(node);
+        int levels = height - depth;
+        long fullLevels = (1L << levels) - 1;
+        long firstInLastLevel = node << levels;
+        long lastLevel = Math.min(Math.max(size - firstInLastLevel + 1, 0), 1L << levels);
+        return (int)(fullLevels + lastLevel);
+    }
+
+    /**
+     * build an index from a sorted array using all available processors
+     * @param sorted values sorted in increasing order. the array is not modified.
+     */
+    public static EytzingerIndex build(long sorted[]) {
+        return build(sorted, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * build an index from a sorted array
+     * @param sorted values sorted in increasing order. the array is not modified.
+     * @param numberOfThreads user specifies the number of threads that will build the index
+     */
+    public static EytzingerIndex build(long sorted[], int numberOfThreads) {
+        EytzingerIndex index = new EytzingerIndex(new long[sorted.length + 1], sorted.length);
+        ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+        try {
+            pool.invoke(new BuildTask(index, sorted, 1, 0));
+        } finally {
+            pool.shutdownNow();
+        }
+        return index;
+    }
+
+    /**
+     * sort the array with MergeSortWithBarriersDTM2 and build an index over it
+     * @param array the array to be sorted
+     * @param numberOfThreads user specifies the number of threads that will sort and build the index
+     */
+    public static EytzingerIndex sortAndBuild(long array[], int numberOfThreads) {
+        MergeSortWithBarriersDTM2.parallelMergeSort(array, numberOfThreads);
+        return build(array, numberOfThreads);
+    }
+
+    /**
+     * @return the number of values in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * descend the tree and return the node of the first value larger than the key, 
+     * or the first value not less than the key if inclusive is false. 
+     * returns 0 if there is no such value. 
+     * 
+     * every step goes to the right child if the node value is smaller, 
+     * the answer is the last node where the descent went to the left. 
+     * it is found by removing the trailing ones and the last zero from the final node number. 
+     * node numbers are long, since the final node number may be larger than the largest int. 
+     */
+    private int descend(long key, boolean inclusive) {
+        long node = 1;
+        if(inclusive) {
+            while(node <= size)
+                node = 2*node + (tree[(int)node] <= key ? 1 : 0);
+        } else {
+            while(node <= size)
+                node = 2*node + (tree[(int)node] < key ? 1 : 0);
+        }
+        return (int)(node >>> (Long.numberOfTrailingZeros(~node) + 1));
+    }
+
+    /**
+     * index of a node in the sorted order
+     * it is the number of nodes visited before it by an in-order traversal
+     */
+    private int sortedIndex(int node) {
+        if(node == 0)
+            return size;
+        int index = subtreeSize(2L*node);
+        int depth = 31 - Integer.numberOfLeadingZeros(node);
+        for (int d = depth-1; d >= 0; d--) {
+            // when the path goes to the right child, the parent and its left subtree come before the node
+            if(((node >>> d) & 1) == 1) {
+                int parent = node >>> (d+1);
+                index += subtreeSize(2L*parent) + 1;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return true if the key is in the index
+     */
+    public boolean contains(long key) {
+        int node = descend(key, false);
+        return node != 0 && tree[node] == key;
+    }
+
+    /**
+     * @return the index of the first value that is not less than the key in the sorted array, 
+     *         or the number of values if all values are less than the key
+     */
+    public int lowerBound(long key) {
+        return sortedIndex(descend(key, false));
+    }
+
+    /**
+     * @return the number of values that are less than or equal to the key
+     */
+    public int rank(long key) {
+        return sortedIndex(descend(key, true));
+    }
+
+    /**
+     * lowerBound for many keys
+     * keys descend the tree in groups, one level at a time for all keys of a group
+     * @param keys keys to search
+     * @param results results[i] is set to lowerBound(keys[i]). it must be at least as long as keys
+     */
+    public void lowerBound(long keys[], int results[]) {
+        long nodes[] = new long[BATCH];
+        for (int first = 0; first < keys.length; first += BATCH) {
+            int count = Math.min(BATCH, keys.length - first);
+            for (int j = 0; j < count; j++)
+                nodes[j] = 1;
+            
+            // all keys descend the same number of levels, except the nodes in the last level
+            for (int level = 0; level <= height; level++) {
+                for (int j = 0; j < count; j++) {
+                    long node = nodes[j];
+                    if(node <= size)
+                        nodes[j] = 2*node + (tree[(int)node] < keys[first+j] ? 1 : 0);
+                }
+            }
+            
+            for (int j = 0; j < count; j++) {
+                long node = nodes[j];
+                results[first+j] = sortedIndex((int)(node >>> (Long.numberOfTrailingZeros(~node) + 1)));
+            }
+        }
+    }
+
+    public static void main(String args[]) {
+        int numberOfThreads = 4;
+        int arraySize = 8000003;
+        int lookups = 10000000;
+        long array[] = new long[arraySize];
+        long keys[] = new long[lookups];
+        int results[] = new int[lookups];
+
+        MergeSortUtil.arrayInit(array, 20);
+        MergeSortUtil.arrayInit(keys, 30);
+
+        long startTime = System.currentTimeMillis();
+        EytzingerIndex index = sortAndBuild(array, numberOfThreads);
+        long duration = System.currentTimeMillis() - startTime;
+        System.out.println("sort and build time: "+duration);
+
+        startTime = System.currentTimeMillis();
+        long sum = 0;
+        for (int i = 0; i < lookups; i++) {
+            int position = java.util.Arrays.binarySearch(array, keys[i]);
+            sum += (position < 0) ? -position-1 : position;
+        }
+        duration = System.currentTimeMillis() - startTime;
+        System.out.println("binary search time: "+duration);
+
+        startTime = System.currentTimeMillis();
+        index.lowerBound(keys, results);
+        duration = System.currentTimeMillis() - startTime;
+        System.out.println("batch index lookup time: "+duration);
+
+        long sum2 = 0;
+        for (int i = 0; i < lookups; i++) {
+            sum2 += results[i];
+        }
+        System.out.println("results are " + ((sum == sum2) ? "the same." : "different."));
+    }
+}
@@ -0,0 +1,384 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Parallel sort of variable length keys (byte arrays and strings) with the long sorting engine
+ * 
+ * Comparing keys through a comparator is slow for large arrays, 
+ * since every comparison follows two references to the keys. 
+ * This class sorts long values instead: 
+ *   a prefix of each key and the index of the key are packed into one long value. 
+ *   the prefix is in the high bits, the index is in the low bits. 
+ *   the prefix is big-endian, so the order of long values is the order of the keys. 
+ *   long values are sorted by MergeSortWithBarriersDTM2. 
+ * 
+ * The index needs log2(n) bits, the prefix gets the remaining bits. 
+ * For example, for 10 million keys the index needs 24 bits, so the prefix has 40 bits (5 bytes, or 2 chars). 
+ * Keys with the same prefix form tied groups. Only tied groups are sorted again, 
+ * with the next units of their keys. Since groups are smaller, their indexes need less bits 
+ * and the prefix gets longer. 
+ *   large groups are sorted in the same way as the whole array, with all threads. 
+ *   small groups are shared by the threads. each thread takes the next group from a counter 
+ *   and sorts it sequentially, together with its own tied groups. 
+ * 
+ * Bytes are compared as unsigned values, strings are compared by chars (the order of String.compareTo). 
+ * Short keys are padded with zeros. When all keys of a group end, 
+ * they are ordered by their lengths: a key comes before the longer keys that it is a prefix of. 
+ * The sort is stable. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KeyPrefixSort extends Thread {
+
+	// groups with at least this many keys are sorted by all threads
+	static final int MIN_PARALLEL_GROUP = 1 << 16;
+
+	/**
+	 * keys are read through this class, so that byte arrays and strings are sorted by the same code
+	 */
+	private static abstract class Keys {
+		// number of bits in one unit of a key: 8 for bytes and 16 for chars
+		final int unitBits;
+
+		Keys(int unitBits) {
+			this.unitBits = unitBits;
+		}
+
+		abstract int length(int key);
+
+		abstract int unit(int key, int position);
+
+		/**
+		 * big-endian prefix of the key, starting at the offset. missing units are zero.
+		 */
+		long prefix(int key, int offset, int units) {
+			int length = length(key);
+			long prefix = 0;
+			for (int u = 0; u < units; u++) {
+				int position = offset + u;
+				prefix = (prefix << unitBits) | (position < length ? unit(key, position) : 0);
+			}
+			return prefix;
+		}
+	}
+
+	private static class ByteKeys extends Keys {
+		private final byte keys[][];
+
+		ByteKeys(byte keys[][]) {
+			super(8);
+			this.keys = keys;
+		}
+
+		int length(int key) {
+			return keys[key].length;
+		}
+
+		int unit(int key, int position) {
+			return keys[key][position] & 0xFF;
+		}
+	}
+
+	private static class StringKeys extends Keys {
+		private final String keys[];
+
+		StringKeys(String keys[]) {
+			super(16);
+			this.keys = keys;
+		}
+
+		int length(int key) {
+			return keys[key].length();
+		}
+
+		int unit(int key, int position) {
+			return keys[key].charAt(position);
+		}
+	}
+
+	private Keys keys;
+	private int order[];
+	// extraction of prefixes for a range of a group
+	private long packed[];
+	private int groupStart;
+	private int offset;
+	private int units;
+	private int indexBits;
+	private int first;
+	private int last;
+	// sorting of small groups
+	private ArrayList<int[]> groups;
+	private AtomicInteger nextGroup;
+	private Throwable failure;
+
+	/**
+	 * a thread that packs the prefixes of the keys order[groupStart+first .. groupStart+last) 
+	 */
+	private KeyPrefixSort(int threadID, Keys keys, int order[], long packed[], int groupStart, 
+			int offset, int units, int indexBits, int first, int last) {
+		super("thread " + threadID);
+		this.keys = keys;
+		this.order = order;
+		this.packed = packed;
+		this.groupStart = groupStart;
+		this.offset = offset;
+		this.units = units;
+		this.indexBits = indexBits;
+		this.first = first;
+		this.last = last;
+	}
+
+	/**
+	 * a thread that sorts small groups, each group is {start, end, offset}
+	 */
+	private KeyPrefixSort(int threadID, Keys keys, int order[], ArrayList<int[]> groups, AtomicInteger nextGroup) {
+		super("thread " + threadID);
+		this.keys = keys;
+		this.order = order;
+		this.groups = groups;
+		this.nextGroup = nextGroup;
+	}
+
+	@Override
+	public void run() {
+		try {
+			if(groups == null) {
+				pack(keys, order, packed, groupStart, offset, units, indexBits, first, last);
+				return;
+			}
+			
+			ArrayDeque<int[]> tied = new ArrayDeque<int[]>();
+			int g;
+			while((g = nextGroup.getAndIncrement()) < groups.size()) {
+				tied.push(groups.get(g));
+				while(!tied.isEmpty()) {
+					int group[] = tied.pop();
+					sortGroup(keys, order, group[0], group[1], group[2], 1, tied, tied);
+				}
+			}
+		} catch (Throwable ex) {
+			failure = ex;
+		}
+	}
+
+	/**
+	 * number of bits for the indexes of a group of keys
+	 */
+	private static int indexBits(int size) {
+		return Math.max(1, 32 - Integer.numberOfLeadingZeros(size - 1));
+	}
+
+	/**
+	 * the key order[start+j] is packed into prefix << indexBits | j
+	 * the sign bit is flipped, so that signed comparison of long values is unsigned comparison of prefixes
+	 */
+	private static void pack(Keys keys, int order[], long packed[], int start, int offset, int units, 
+			int indexBits, int first, int last) {
+		for (int j = first; j < last; j++) {
+			packed[j] = ((keys.prefix(order[start+j], offset, units) << indexBits) | j) ^ Long.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * sort the keys order[start..end) that have equal units before the offset
+	 * tied groups of the result with at least MIN_PARALLEL_GROUP keys are added to large, others to small
+	 * @param numberOfThreads if more than 1, the group is sorted by that many threads
+	 */
+	private static void sortGroup(Keys keys, int order[], int start, int end, int offset, int numberOfThreads, 
+			ArrayDeque<int[]> large, ArrayDeque<int[]> small) {
+		int size = end - start;
+		
+		// when all keys have ended, shorter keys come first. equal keys keep their order.
+		int longest = 0;
+		for (int i = start; i < end; i++) {
+			longest = Math.max(longest, keys.length(order[i]));
+		}
+		int bits = indexBits(size);
+		if(longest <= offset) {
+			long packed[] = new long[size];
+			for (int j = 0; j < size; j++) {
+				packed[j] = ((long)keys.length(order[start+j]) << bits) | j;
+			}
+			Arrays.sort(packed);
+			reorder(order, start, packed, bits);
+			return;
+		}
+		
+		int units = (64 - bits) / keys.unitBits;
+		long packed[] = new long[size];
+		if(numberOfThreads > 1) {
+			KeyPrefixSort threads[] = new KeyPrefixSort[numberOfThreads];
+			for (int i = 0; i < threads.length; i++) {
+				int first = (int)((long)size * i / numberOfThreads);
+				int last = (int)((long)size * (i+1) / numberOfThreads);
+				threads[i] = new KeyPrefixSort(i, keys, order, packed, start, offset, units, bits, first, last);
+				threads[i].start();
+			}
+			join(threads);
+			MergeSortWithBarriersDTM2.parallelMergeSort(packed, numberOfThreads);
+		} else {
+			pack(keys, order, packed, start, offset, units, bits, 0, size);
+			Arrays.sort(packed);
+		}
+		reorder(order, start, packed, bits);
+		
+		// keys with equal prefixes are sorted again with the next units
+		int groupStart = 0;
+		for (int j = 1; j <= size; j++) {
+			if(j < size && (packed[j] >>> bits) == (packed[groupStart] >>> bits))
+				continue;
+			if(j - groupStart > 1) {
+				int group[] = {start + groupStart, start + j, offset + units};
+				if(j - groupStart >= MIN_PARALLEL_GROUP)
+					large.push(group);
+				else
+					small.push(group);
+			}
+			groupStart = j;
+		}
+	}
+
+	/**
+	 * put the keys of a group in the order of the sorted packed values
+	 */
+	private static void reorder(int order[], int start, long packed[], int bits) {
+		long mask = (1L << bits) - 1;
+		int group[] = Arrays.copyOfRange(order, start, start + packed.length);
+		for (int j = 0; j < packed.length; j++) {
+			order[start+j] = group[(int)(packed[j] & mask)];
+		}
+	}
+
+	private static void join(KeyPrefixSort threads[]) {
+		SortController controller = new SortController();
+		controller.joinAll(threads);
+		Throwable failures[] = new Throwable[threads.length];
+		for (int i = 0; i < threads.length; i++) {
+			failures[i] = threads[i].failure;
+		}
+		SortController.rethrow(failures);
+	}
+
+	private static int[] sortedOrder(Keys keys, int length, int numberOfThreads) {
+		int order[] = new int[length];
+		for (int i = 0; i < length; i++) {
+			order[i] = i;
+		}
+		if(length < 2)
+			return order;
+		
+		ArrayDeque<int[]> large = new ArrayDeque<int[]>();
+		ArrayDeque<int[]> small = new ArrayDeque<int[]>();
+		int all[] = {0, length, 0};
+		if(length >= MIN_PARALLEL_GROUP && numberOfThreads > 1)
+			large.push(all);
+		else
+			small.push(all);
+		
+		// large groups are sorted one after another by all threads
+		while(!large.isEmpty()) {
+			int group[] = large.pop();
+			sortGroup(keys, order, group[0], group[1], group[2], numberOfThreads, large, small);
+		}
+		
+		// small groups are shared by the threads
+		ArrayList<int[]> groups = new ArrayList<int[]>(small);
+		AtomicInteger nextGroup = new AtomicInteger();
+		KeyPrefixSort threads[] = new KeyPrefixSort[Math.max(1, Math.min(numberOfThreads, groups.size()))];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new KeyPrefixSort(i, keys, order, groups, nextGroup);
+			threads[i].start();
+		}
+		join(threads);
+		return order;
+	}
+
+	/**
+	 * @param keys keys to be sorted. bytes are compared as unsigned values. the array is not modified.
+	 * @param numberOfThreads user specifies the number of threads that will sort
+	 * @return indexes of the keys in sorted order
+	 */
+	public static int[] sortedOrder(byte keys[][], int numberOfThreads) {
+		return sortedOrder(new ByteKeys(keys), keys.length, numberOfThreads);
+	}
+
+	/**
+	 * @param keys keys to be sorted. the array is not modified.
+	 * @param numberOfThreads user specifies the number of threads that will sort
+	 * @return indexes of the keys in sorted order
+	 */
+	public static int[] sortedOrder(String keys[], int numberOfThreads) {
+		return sortedOrder(new StringKeys(keys), keys.length, numberOfThreads);
+	}
+
+	/**
+	 * sort the keys in place. bytes are compared as unsigned values.
+	 * @param numberOfThreads user specifies the number of threads that will sort
+	 */
+	public static void parallelSort(byte keys[][], int numberOfThreads) {
+		int order[] = sortedOrder(keys, numberOfThreads);
+		byte copy[][] = keys.clone();
+		for (int i = 0; i < order.length; i++) {
+			keys[i] = copy[order[i]];
+		}
+	}
+
+	/**
+	 * sort the keys in place, in the order of String.compareTo
+	 * @param numberOfThreads user specifies the number of threads that will sort
+	 */
+	public static void parallelSort(String keys[], int numberOfThreads) {
+		int order[] = sortedOrder(keys, numberOfThreads);
+		String copy[] = keys.clone();
+		for (int i = 0; i < order.length; i++) {
+			keys[i] = copy[order[i]];
+		}
+	}
+
+	public static void main(String args[]) {
+		int numberOfThreads = 4;
+		int numberOfKeys = 2000000;
+		java.util.Random r = new java.util.Random(20);
+		
+		// url like keys with a long common beginning
+		String keys[] = new String[numberOfKeys];
+		for (int i = 0; i < numberOfKeys; i++) {
+			keys[i] = "https://www.example.com/items/" + r.nextInt(numberOfKeys) + "/" + Long.toHexString(r.nextLong());
+		}
+		String keys2[] = keys.clone();
+		
+		long startTime = System.currentTimeMillis();
+		Arrays.parallelSort(keys2); // system parallel sort
+		long duration = System.currentTimeMillis() - startTime;
+		System.out.println("system sorting time: "+duration);
+		
+		startTime = System.currentTimeMillis();
+		parallelSort(keys, numberOfThreads);
+		duration = System.currentTimeMillis() - startTime;
+		System.out.println("key prefix sorting time: "+duration);
+		
+		if(Arrays.equals(keys, keys2))
+			System.out.println("keys are sorted.");
+		else
+			System.out.println("keys are not sorted.");
+	}
+}
@@ -0,0 +1,259 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Sorting long arrays with a narrow range of values
+ * 
+ * Many long arrays span a small range: timestamps of one day, small ids, counters. 
+ * Merge levels of MergeSortWithBarriersDTM2 move 8 bytes for each element and they are limited by the memory bandwidth. 
+ * 
+ * A parallel pre-pass finds the minimum and the maximum of the array. Then: 
+ *   if max - min is less than COUNTING_RANGE, the array is sorted with a parallel counting sort: 
+ *     each thread counts the values in its range of the array, 
+ *     the counts of all threads are added, 
+ *     each thread writes the values of its range of the sorted array. 
+ *     merge levels are not needed at all. 
+ *   if max - min fits in 32 bits, the values are packed to ints: 
+ *     (value - min) is an unsigned 32 bit number. its highest bit is flipped, so that ints are in the same order. 
+ *     the int array is sorted with MergeSortWithBarriersIntDTM and the values are unpacked back. 
+ *     merge levels move 4 bytes for each element. 
+ *   otherwise, the array is sorted with MergeSortWithBarriersDTM2. 
+ * 
+ * Each pass is run by threads with one range of the array for each thread. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.Arrays;
+
+public class KeyRangeSort extends Thread {
+	
+	// arrays shorter than this are sorted with Arrays.sort
+	static final int MIN_PARALLEL_LENGTH = 1 << 16;
+	// ranges with fewer values than this are sorted with counting sort
+	static final int COUNTING_RANGE = 1 << 16;
+	static final long INT_RANGE = 0xFFFFFFFFL;
+	
+	private static final int MIN_MAX = 0;
+	private static final int PACK = 1;
+	private static final int UNPACK = 2;
+	private static final int COUNT = 3;
+	private static final int FILL = 4;
+	
+    private int pass;
+    private long array[];
+    private int packed[];
+    private int first;
+    private int last;
+    private long min;
+    private long max;
+    // counts of values in the range of this thread, or the starts of values in the sorted array in the fill pass
+    private int counts[];
+    private SortController controller;
+    private Throwable failure;
+    
+    public KeyRangeSort(int threadID, int pass, long array[], int packed[], int first, int last, long min, int counts[], 
+            SortController controller) {
+        super("thread " + threadID);
+        this.pass = pass;
+        this.array = array;
+        this.packed = packed;
+        this.first = first;
+        this.last = last;
+        this.min = min;
+        this.counts = counts;
+        this.controller = controller;
+    }
+    
+    @Override
+    public void run() {
+        try {
+            controller.checkpoint();
+            switch(pass) {
+            case MIN_MAX:
+                min = Long.MAX_VALUE;
+                max = Long.MIN_VALUE;
+                for (int i = first; i < last; i++) {
+                    min = Math.min(min, array[i]);
+                    max = Math.max(max, array[i]);
+                }
+                break;
+            case PACK:
+                for (int i = first; i < last; i++) {
+                    packed[i] = (int)(array[i] - min) ^ Integer.MIN_VALUE;
+                }
+                break;
+            case UNPACK:
+                for (int i = first; i < last; i++) {
+                    array[i] = min + ((packed[i] ^ Integer.MIN_VALUE) & INT_RANGE);
+                }
+                break;
+            case COUNT:
+                for (int i = first; i < last; i++) {
+                    counts[(int)(array[i] - min)]++;
+                }
+                break;
+            case FILL:
+                // the first value of this range is the last value that starts at or before first
+                int value = lastStartAtOrBefore(counts, first);
+                int index = first;
+                while(index < last) {
+                    int end = (value+1 < counts.length) ? Math.min(last, counts[value+1]) : last;
+                    Arrays.fill(array, index, end, min + value);
+                    index = end;
+                    value++;
+                }
+                break;
+            }
+        } catch (Throwable ex) {
+            failure = ex;
+        }
+    }
+    
+    /**
+     * the last value that starts at or before the index in the sorted array
+     * @param starts increasing start indexes of values, values that are not in the array have the same start as the next one
+     */
+    private static int lastStartAtOrBefore(int starts[], int index) {
+        int low = 0, high = starts.length;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(starts[middle] <= index)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low - 1;
+    }
+    
+    /**
+     * sort the array, using all available processors
+     * @param array the array to be sorted. we assume the array is full. 
+     */
+    public static void sort(long array[]) {
+        sort(array, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     */
+    public static void sort(long array[], int numberOfThreads) {
+        sort(array, numberOfThreads, new SortController());
+    }
+    
+    /**
+     * a sort method that can be cancelled through the given controller
+     * throws CancellationException if the sort is cancelled or its deadline passes
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param controller cancellation and deadline of this sort
+     */
+    public static void sort(long array[], int numberOfThreads, SortController controller) {
+        if(array.length < MIN_PARALLEL_LENGTH) {
+            Arrays.sort(array);
+            return;
+        }
+        
+        KeyRangeSort threads[] = run(MIN_MAX, array, null, 0, null, numberOfThreads, controller);
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < threads.length; i++) {
+            min = Math.min(min, threads[i].min);
+            max = Math.max(max, threads[i].max);
+        }
+        // max - min may be larger than Long.MAX_VALUE, it is compared as an unsigned number
+        long range = max - min;
+        
+        if(Long.compareUnsigned(range, COUNTING_RANGE) < 0) {
+            countingSort(array, min, (int)range + 1, numberOfThreads, controller);
+        } else if(Long.compareUnsigned(range, INT_RANGE) <= 0) {
+            int packed[] = new int[array.length];
+            run(PACK, array, packed, min, null, numberOfThreads, controller);
+            MergeSortWithBarriersIntDTM.parallelMergeSort(packed, numberOfThreads, controller);
+            run(UNPACK, array, packed, min, null, numberOfThreads, controller);
+        } else {
+            MergeSortWithBarriersDTM2.parallelMergeSort(array, numberOfThreads, controller);
+        }
+    }
+    
+    private static void countingSort(long array[], long min, int numberOfValues, int numberOfThreads, SortController controller) {
+        int counts[][] = new int[numberOfThreads][numberOfValues];
+        run(COUNT, array, null, min, counts, numberOfThreads, controller);
+        
+        // starts[v] is the index of the first element with value (min + v) in the sorted array
+        int starts[] = new int[numberOfValues];
+        int start = 0;
+        for (int v = 0; v < numberOfValues; v++) {
+            starts[v] = start;
+            for (int t = 0; t < numberOfThreads; t++) {
+                start += counts[t][v];
+            }
+        }
+        
+        int shared[][] = new int[numberOfThreads][];
+        Arrays.fill(shared, starts);
+        run(FILL, array, null, min, shared, numberOfThreads, controller);
+    }
+    
+    private static KeyRangeSort[] run(int pass, long array[], int packed[], long min, int counts[][], int numberOfThreads, 
+            SortController controller) {
+        int blockSize = array.length / numberOfThreads;
+        KeyRangeSort threads[] = new KeyRangeSort[numberOfThreads];
+        for (int i = 0; i < numberOfThreads; i++) {
+            int first = i * blockSize;
+            int last = (i == numberOfThreads-1) ? array.length : first + blockSize;
+            threads[i] = new KeyRangeSort(i, pass, array, packed, first, last, min, (counts == null) ? null : counts[i], controller);
+            threads[i].start();
+        }
+        
+        controller.joinAll(threads);
+        Throwable failures[] = new Throwable[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            failures[i] = threads[i].failure;
+        }
+        SortController.rethrow(failures);
+        return threads;
+    }
+    
+    public static void main(String args[]) {
+        int numberOfThreads = 4;
+        int arraySize = 8000003;
+        long day = 24L * 60 * 60 * 1000;
+        long start = 1500000000000L;
+        long ranges[] = {1000, day, Long.MAX_VALUE};
+        java.util.Random r = new java.util.Random(20);
+        
+        for (long range : ranges) {
+            long array[] = new long[arraySize];
+            for (int i = 0; i < arraySize; i++) {
+                array[i] = start + (long)(r.nextDouble() * range);
+            }
+            long array2[] = array.clone();
+            
+            long startTime = System.currentTimeMillis();
+            MergeSortWithBarriersDTM2.parallelMergeSort(array2, numberOfThreads);
+            long duration = System.currentTimeMillis() - startTime;
+            System.out.println("range " + range + ", DTM2 sorting time: "+duration);
+            
+            startTime = System.currentTimeMillis();
+            sort(array, numberOfThreads);
+            duration = System.currentTimeMillis() - startTime;
+            System.out.println("range " + range + ", key range sorting time: "+duration);
+            System.out.println(Arrays.equals(array, array2) ? "same result as DTM2." : "results are different.");
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Sizes of the leaf sub arrays of a complete binary thread tree, computed from a cost model
+ * 
+ * MergeSortWithForkJoinSTM2.java class gives the same number of elements to every leaf thread. 
+ * When the number of leaf threads is not a power of two, leaves are in two levels: 
+ *   leaves in the last level are merged in pairs first. 
+ *   leaves in the level before the last one are merged with those pairs without that merge. 
+ * So, the leaves in the previous level wait idle while the last level leaves are merged. 
+ * 
+ * This class gives more elements to the leaves in the previous level, 
+ * so that the root finishes as early as the cost model allows. 
+ * 
+ * Cost model: 
+ *   sorting s elements takes sortCost * s * log2(s) 
+ *   merging s elements takes mergeCost * s (merge and copy back) 
+ *   a node of the tree starts merging when both of its children finish. 
+ * The time of a root-to-leaf path is the sorting time of the leaf 
+ * plus mergeCost * size of the sub tree, for every ancestor of the leaf up to the root. 
+ * The root finishes with the longest of these paths (the critical path). 
+ * 
+ * The last level leaves get d elements and the previous level leaves get p elements, so that all elements are assigned. 
+ * The finishing time of the root is a convex function of d, 
+ * d is found with a ternary search that minimizes it. 
+ * With the 6 leaves of the README, it balances the deep path (sort d, merge 2d, merge 4d) 
+ * with the shallow path (sort p, merge 2p). 
+ * When the paths can not all be equal with two sizes, for example with 5 leaves, 
+ * the longest path is as short as possible. 
+ * 
+ * When the number of leaves is a power of two, all leaves get the same number of elements. 
+ * 
+ * @author Ahmet Uyar
+ */
+public class LeafPartitioner {
+	
+	static final double DEFAULT_SORT_COST = 1.0;
+	static final double DEFAULT_MERGE_COST = 2.0;
+	
+	private final double sortCost;
+	private final double mergeCost;
+	
+	public LeafPartitioner() {
+		this(DEFAULT_SORT_COST, DEFAULT_MERGE_COST);
+	}
+	
+	/**
+	 * @param sortCost cost of sorting, per element per level of log2(size)
+	 * @param mergeCost cost of merging, per element
+	 */
+	public LeafPartitioner(double sortCost, double mergeCost) {
+		if(!(sortCost > 0) || !(mergeCost >= 0))
+			throw new IllegalArgumentException("sort cost must be positive and merge cost can not be negative: " 
+					+ sortCost + ", " + mergeCost);
+		this.sortCost = sortCost;
+		this.mergeCost = mergeCost;
+	}
+	
+	private double sortingTime(double size) {
+		return (size < 2) ? sortCost * size : sortCost * size * Math.log(size) / Math.log(2);
+	}
+	
+	/**
+	 * the time when a node of the thread tree finishes, in the cost model
+	 * the number of elements in the sub tree of the node is stored in size[0]
+	 * @param nodeID id of the node, the root is 1 and the children of node n are 2n and 2n+1
+	 */
+	private double finishingTime(int nodeID, int numberOfLeafThreads, int firstNodeOfLastLevel, 
+			double deepSize, double shallowSize, double size[]) {
+		if(nodeID >= numberOfLeafThreads) {
+			size[0] = (nodeID >= firstNodeOfLastLevel) ? deepSize : shallowSize;
+			return sortingTime(size[0]);
+		}
+		double left = finishingTime(2*nodeID, numberOfLeafThreads, firstNodeOfLastLevel, deepSize, shallowSize, size);
+		double leftSize = size[0];
+		double right = finishingTime(2*nodeID+1, numberOfLeafThreads, firstNodeOfLastLevel, deepSize, shallowSize, size);
+		size[0] += leftSize;
+		return Math.max(left, right) + mergeCost * size[0];
+	}
+	
+	/**
+	 * compute the sub arrays of all leaves in array order
+	 * the leaves of the last level come first, then the leaves of the previous level
+	 * @param arrayLength number of elements to be sorted
+	 * @param numberOfLeafThreads number of leaves of the thread tree
+	 * @return numberOfLeafThreads+1 bounds, the leaf at position i sorts [bounds[i], bounds[i+1])
+	 */
+	public int[] bounds(int arrayLength, int numberOfLeafThreads) {
+		int lastNodeID = numberOfLeafThreads*2-1;
+		int treeHeight = (int)(Math.log(lastNodeID)/Math.log(2));
+		int firstNodeOfLastLevel = (int)Math.pow(2, treeHeight);
+		int deepLeaves = lastNodeID - firstNodeOfLastLevel + 1;
+		int shallowLeaves = numberOfLeafThreads - deepLeaves;
+		
+		double deepSize = (double)arrayLength / numberOfLeafThreads;
+		double shallowSize = deepSize;
+		if(shallowLeaves > 0 && deepLeaves > 0) {
+			// the deep size that minimizes the finishing time of the root
+			double low = 0, high = (double)arrayLength / deepLeaves;
+			double size[] = new double[1];
+			for (int i = 0; i < 100; i++) {
+				double d1 = low + (high - low) / 3;
+				double d2 = high - (high - low) / 3;
+				double time1 = finishingTime(1, numberOfLeafThreads, firstNodeOfLastLevel, 
+						d1, (arrayLength - deepLeaves * d1) / shallowLeaves, size);
+				double time2 = finishingTime(1, numberOfLeafThreads, firstNodeOfLastLevel, 
+						d2, (arrayLength - deepLeaves * d2) / shallowLeaves, size);
+				if(time1 <= time2)
+					high = d2;
+				else
+					low = d1;
+			}
+			deepSize = (low + high) / 2;
+			shallowSize = (arrayLength - deepLeaves * deepSize) / shallowLeaves;
+		}
+		
+		int bounds[] = new int[numberOfLeafThreads + 1];
+		double end = 0;
+		for (int i = 0; i < numberOfLeafThreads; i++) {
+			end += (i < deepLeaves) ? deepSize : shallowSize;
+			bounds[i+1] = (int)Math.min(arrayLength, Math.round(end));
+		}
+		// the last leaf gets the remaining elements
+		bounds[numberOfLeafThreads] = arrayLength;
+		return bounds;
+	}
+	
+	/**
+	 * position of a leaf thread in array order
+	 * @param threadID id of the leaf thread, at least numberOfLeafThreads
+	 */
+	static int leafPosition(int threadID, int numberOfLeafThreads) {
+		int lastNodeID = numberOfLeafThreads*2-1;
+		int treeHeight = (int)(Math.log(lastNodeID)/Math.log(2));
+		int firstNodeOfLastLevel = (int)Math.pow(2, treeHeight);
+		int nodesInLastLevel = lastNodeID - firstNodeOfLastLevel + 1;
+		if(threadID >= firstNodeOfLastLevel)
+			return threadID - firstNodeOfLastLevel;
+		return nodesInLastLevel + (threadID - numberOfLeafThreads);
+	}
+	
+	public static void main(String args[]) {
+		int arraySize = 12000000;
+		int leaves[] = {4, 6, 12, 24};
+		LeafPartitioner partitioner = new LeafPartitioner();
+		for (int i = 0; i < leaves.length; i++) {
+			int bounds[] = partitioner.bounds(arraySize, leaves[i]);
+			StringBuilder sizes = new StringBuilder();
+			for (int l = 0; l < leaves[i]; l++) {
+				sizes.append(bounds[l+1] - bounds[l]).append(' ');
+			}
+			System.out.println(leaves[i] + " leaves: " + sizes);
+		}
+		
+		int numberOfLeafThreads = 6;
+		long array[] = new long[arraySize];
+		long array2[] = new long[arraySize];
+		MergeSortUtil.arrayInit(array, 20);
+		MergeSortUtil.arrayInit(array2, 20);
+		
+		long startTime = System.currentTimeMillis();
+		MergeSortWithForkJoinSTM2.parallelMergeSort(array2, numberOfLeafThreads);
+		long duration = System.currentTimeMillis() - startTime;
+		System.out.println("equal leaves sorting time: " + duration);
+		
+		startTime = System.currentTimeMillis();
+		MergeSortWithForkJoinSTM2.parallelMergeSort(array, numberOfLeafThreads, partitioner);
+		duration = System.currentTimeMillis() - startTime;
+		System.out.println("cost model leaves sorting time: " + duration);
+		MergeSortUtil.isSorted(array);
+	}
+}
@@ -0,0 +1,50 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Sequential sort of the sub array of one thread before merging starts
+ * 
+ * Parallel engines sort the sub array of each thread sequentially, then merge them. 
+ * This sequential sort can be selected, so that the fastest one can be used for each kind of input: 
+ *   JDK: Arrays.sort, dual pivot quicksort 
+ *   RADIX: least significant digit radix sort with 8 bit digits. 
+ *     it passes the elements between the array and the auxiliary array. 
+ *     passes in which all elements have the same digit are skipped. 
+ *   MERGE: bottom-up merge sort. runs of 8 elements are sorted with a sorting network, 
+ *     then runs are merged back and forth between the array and the auxiliary array. 
+ * 
+ * A leaf sorter can use the same range of the auxiliary array as its sub array. 
+ * Engines do not use that range of the auxiliary array while the leaf is being sorted. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.Arrays;
+
+public interface LeafSorter {
+	
+	/**
+	 * sort array[first, last)
+	 * @param aux auxiliary array. aux[first, last) can be used during sorting.
+	 */
+	void sort(long array[], long aux[], int first, int last);
+	
+	LeafSorter JDK = (array, aux, first, last) -> Arrays.sort(array, first, last);
+	
+	LeafSorter RADIX = MergeSortSeq::radixSort;
+	
+	LeafSorter MERGE = MergeSortSeq::bottomUpMergeSort;
+}
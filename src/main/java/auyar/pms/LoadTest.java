@@ -0,0 +1,251 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Load test with many concurrent callers
+ * 
+ * PerformanceTest.java measures one sort at a time. 
+ * In a server, many request threads may sort at the same time 
+ * and each parallel sort starts its own sorting threads. 
+ * This class runs a number of caller threads for a given duration. 
+ * Each caller sorts arrays of randomly selected sizes with the same engine, one after another. 
+ * 
+ * The report of an engine has: 
+ *   latency percentiles of sort calls (p50, p99, p999) and the maximum 
+ *   throughput: sorts and elements per second 
+ *   peak number of live threads in the JVM 
+ *   number of garbage collections and the time spent in them 
+ * 
+ * Input arrays are generated once for each size. 
+ * Callers copy them to their own arrays before each sort, the copying is not measured. 
+ * A warm up run precedes the measured run, so that the sorting code is compiled. 
+ * 
+ * usage: java auyar.pms.LoadTest [--engines dtm2,forkjoin-stm2,...] [--callers n] [--threads n] 
+ *                                [--sizes 10000,100000,...] [--seconds n]
+ * 
+ * @author Ahmet Uyar
+ */
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public class LoadTest extends Thread {
+	
+	/**
+	 * results of a load test
+	 */
+	public static class Report {
+		public final SortEngine engine;
+		public final long sorts;
+		public final long elements;
+		public final long failures;
+		public final double seconds;
+		public final double p50, p99, p999, max;
+		public final int peakThreads;
+		public final long gcCount;
+		public final long gcMillis;
+		
+		Report(SortEngine engine, long latencies[], long elements, long failures, double seconds, 
+				int peakThreads, long gcCount, long gcMillis) {
+			this.engine = engine;
+			this.sorts = latencies.length;
+			this.elements = elements;
+			this.failures = failures;
+			this.seconds = seconds;
+			Arrays.sort(latencies);
+			this.p50 = percentile(latencies, 0.50);
+			this.p99 = percentile(latencies, 0.99);
+			this.p999 = percentile(latencies, 0.999);
+			this.max = percentile(latencies, 1.0);
+			this.peakThreads = peakThreads;
+			this.gcCount = gcCount;
+			this.gcMillis = gcMillis;
+		}
+		
+		/**
+		 * latency in milliseconds at the given fraction of sorted latencies
+		 */
+		private static double percentile(long sortedLatencies[], double fraction) {
+			if(sortedLatencies.length == 0)
+				return 0;
+			int index = (int)Math.ceil(fraction * sortedLatencies.length) - 1;
+			return sortedLatencies[Math.max(0, index)] / 1e6;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%-15s %8d %10.1f %12.0f %9.2f %9.2f %9.2f %9.2f %8d %6d %8d %8d", 
+					engine, sorts, sorts / seconds, elements / seconds, p50, p99, p999, max, 
+					peakThreads, gcCount, gcMillis, failures);
+		}
+		
+		static String header() {
+			return String.format("%-15s %8s %10s %12s %9s %9s %9s %9s %8s %6s %8s %8s", 
+					"engine", "sorts", "sorts/s", "elements/s", "p50 ms", "p99 ms", "p999 ms", "max ms", 
+					"threads", "gcs", "gc ms", "failures");
+		}
+	}
+	
+	private SortEngine engine;
+	private int numberOfThreads;
+	private long inputs[][];
+	private long deadline;
+	private SplittableRandom random;
+	private long latencies[] = new long[1024];
+	private int numberOfSorts;
+	private long elements;
+	private long failures;
+	
+	public LoadTest(int callerID, SortEngine engine, int numberOfThreads, long inputs[][], long deadline, long seed) {
+		super("caller " + callerID);
+		this.engine = engine;
+		this.numberOfThreads = numberOfThreads;
+		this.inputs = inputs;
+		this.deadline = deadline;
+		this.random = new SplittableRandom(seed);
+	}
+	
+	@Override
+	public void run() {
+		long arrays[][] = new long[inputs.length][];
+		for (int i = 0; i < inputs.length; i++) {
+			arrays[i] = new long[inputs[i].length];
+		}
+		
+		while(System.nanoTime() < deadline) {
+			int size = random.nextInt(inputs.length);
+			long array[] = arrays[size];
+			System.arraycopy(inputs[size], 0, array, 0, array.length);
+			
+			long startTime = System.nanoTime();
+			try {
+				engine.sort(array, numberOfThreads);
+			} catch (Throwable ex) {
+				// failures are counted, the caller continues like a server would
+				failures++;
+				continue;
+			}
+			long latency = System.nanoTime() - startTime;
+			
+			if(numberOfSorts == latencies.length)
+				latencies = Arrays.copyOf(latencies, latencies.length * 2);
+			latencies[numberOfSorts++] = latency;
+			elements += array.length;
+		}
+	}
+	
+	private static long[] gcTotals() {
+		long totals[] = new long[2];
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			totals[0] += Math.max(0, gc.getCollectionCount());
+			totals[1] += Math.max(0, gc.getCollectionTime());
+		}
+		return totals;
+	}
+	
+	/**
+	 * run concurrent callers with one engine
+	 * @param engine sorting engine
+	 * @param numberOfCallers number of threads that call the engine at the same time
+	 * @param numberOfThreads number of sorting threads of each call
+	 * @param sizes array sizes, each call selects one of them randomly
+	 * @param durationMillis duration of the test
+	 */
+	public static Report run(SortEngine engine, int numberOfCallers, int numberOfThreads, int sizes[], long durationMillis) {
+		long inputs[][] = new long[sizes.length][];
+		for (int i = 0; i < sizes.length; i++) {
+			inputs[i] = new long[sizes[i]];
+			MergeSortUtil.arrayInit(inputs[i], sizes[i]);
+		}
+		
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		threadBean.resetPeakThreadCount();
+		long gcBefore[] = gcTotals();
+		long startTime = System.nanoTime();
+		long deadline = startTime + durationMillis * 1000000L;
+		
+		LoadTest callers[] = new LoadTest[numberOfCallers];
+		for (int i = 0; i < callers.length; i++) {
+			callers[i] = new LoadTest(i, engine, numberOfThreads, inputs, deadline, i * 31L + 7);
+			callers[i].start();
+		}
+		new SortController().joinAll(callers);
+		
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		long gcAfter[] = gcTotals();
+		
+		int numberOfSorts = 0;
+		for (int i = 0; i < callers.length; i++) {
+			numberOfSorts += callers[i].numberOfSorts;
+		}
+		long latencies[] = new long[numberOfSorts];
+		long elements = 0, failures = 0;
+		int index = 0;
+		for (int i = 0; i < callers.length; i++) {
+			System.arraycopy(callers[i].latencies, 0, latencies, index, callers[i].numberOfSorts);
+			index += callers[i].numberOfSorts;
+			elements += callers[i].elements;
+			failures += callers[i].failures;
+		}
+		return new Report(engine, latencies, elements, failures, seconds, threadBean.getPeakThreadCount(), 
+				gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+	}
+	
+	public static void main(String args[]) {
+		SortEngine engines[] = {SortEngine.DTM2, SortEngine.FORKJOIN_STM2, SortEngine.JDK_PARALLEL, SortEngine.JDK_SEQUENTIAL};
+		int numberOfCallers = 16;
+		int numberOfThreads = Runtime.getRuntime().availableProcessors();
+		int sizes[] = {10000, 100000, 1000000};
+		int seconds = 10;
+		
+		for (int a = 0; a + 1 < args.length; a += 2) {
+			String value = args[a+1];
+			if(args[a].equals("--engines")) {
+				String names[] = value.split(",");
+				engines = new SortEngine[names.length];
+				for (int i = 0; i < names.length; i++) {
+					engines[i] = SortEngine.forName(names[i]);
+				}
+			} else if(args[a].equals("--callers")) {
+				numberOfCallers = Integer.parseInt(value);
+			} else if(args[a].equals("--threads")) {
+				numberOfThreads = Integer.parseInt(value);
+			} else if(args[a].equals("--sizes")) {
+				String numbers[] = value.split(",");
+				sizes = new int[numbers.length];
+				for (int i = 0; i < numbers.length; i++) {
+					sizes[i] = Integer.parseInt(numbers[i].trim());
+				}
+			} else if(args[a].equals("--seconds")) {
+				seconds = Integer.parseInt(value);
+			} else {
+				throw new IllegalArgumentException("unknown option: " + args[a]);
+			}
+		}
+		
+		System.out.println(numberOfCallers + " callers, " + numberOfThreads + " threads per sort, sizes " 
+				+ Arrays.toString(sizes) + ", " + seconds + " seconds per engine");
+		System.out.println(Report.header());
+		for (int i = 0; i < engines.length; i++) {
+			// warm up, not reported
+			run(engines[i], numberOfCallers, numberOfThreads, sizes, Math.max(1, seconds / 5) * 1000L);
+			System.out.println(run(engines[i], numberOfCallers, numberOfThreads, sizes, seconds * 1000L));
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Merge schedule for sorted runs of any number and size
+ * 
+ * MergeSortWithBarriersDTM2 merges consecutive pairs of blocks at each level. 
+ * When the number of blocks is odd, the last block is not merged at that level. 
+ * It is merged later with a much larger block and the threads of that block are idle. 
+ * 
+ * This planner builds the levels of merges in a size-aware way: 
+ *   runs are merged in consecutive pairs, since a merge needs neighbour runs in the array. 
+ *   when the number of runs is odd, the largest run at an even position is left for the next level. 
+ *   runs before it and after it can be paired, and the largest run waits for the others to grow. 
+ * 
+ * All threads take part in every level: 
+ *   if a level has fewer merges than threads, each merge gets a number of threads proportional to its size. 
+ *   a merge with g threads is divided into g parts of equal size with MergeSortUtil.coRank. 
+ *   with two threads this is the same as merging mins and maxes. 
+ *   if a level has at least as many merges as threads, 
+ *   whole merges are given to threads, the largest merge to the least loaded thread. 
+ * 
+ * A task is a part of a merge: {start1, start2, last, k1, k2}. 
+ * It merges the elements from k1 to k2 of the merged output of [start1, start2) and [start2, last). 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class MergePlanner {
+	
+	static final int TASK_SIZE = 5;
+	
+	/**
+	 * merge levels: tasks[level][thread] has the tasks of a thread at a level, TASK_SIZE ints for each task
+	 */
+	public static class Plan {
+		final int tasks[][][];
+		
+		Plan(int tasks[][][]) {
+			this.tasks = tasks;
+		}
+		
+		public int numberOfLevels() {
+			return tasks.length;
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder();
+			for (int level = 0; level < tasks.length; level++) {
+				text.append("level ").append(level).append(':');
+				for (int thread = 0; thread < tasks[level].length; thread++) {
+					int t[] = tasks[level][thread];
+					for (int i = 0; i < t.length; i += TASK_SIZE) {
+						text.append(" t").append(thread).append("[").append(t[i]).append(',').append(t[i+1])
+							.append(',').append(t[i+2]).append(")").append(t[i+3]).append('-').append(t[i+4]);
+					}
+				}
+				text.append('\n');
+			}
+			return text.toString();
+		}
+	}
+	
+	/**
+	 * @param bounds bounds of the sorted runs, run i is [bounds[i], bounds[i+1])
+	 * @param numberOfThreads number of merging threads
+	 */
+	public static Plan plan(int bounds[], int numberOfThreads) {
+		int runs[] = bounds.clone();
+		ArrayList<int[][]> levels = new ArrayList<int[][]>();
+		
+		while(runs.length > 2) {
+			int numberOfRuns = runs.length - 1;
+			
+			// the run that waits for the next level, -1 if all runs are merged
+			int waiting = -1;
+			if(numberOfRuns % 2 == 1) {
+				for (int r = 0; r < numberOfRuns; r += 2) {
+					if(waiting < 0 || runs[r+1] - runs[r] > runs[waiting+1] - runs[waiting])
+						waiting = r;
+				}
+			}
+			
+			// merges of this level, each one is {start1, start2, last}
+			int numberOfMerges = numberOfRuns / 2;
+			int merges[][] = new int[numberOfMerges][];
+			int next[] = new int[numberOfRuns - numberOfMerges + 1];
+			int r = 0, m = 0, n = 0;
+			while(r < numberOfRuns) {
+				next[n++] = runs[r];
+				if(r == waiting) {
+					r++;
+				} else {
+					merges[m++] = new int[]{runs[r], runs[r+1], runs[r+2]};
+					r += 2;
+				}
+			}
+			next[n] = runs[numberOfRuns];
+			
+			levels.add(assign(merges, numberOfThreads));
+			runs = next;
+		}
+		return new Plan(levels.toArray(new int[levels.size()][][]));
+	}
+	
+	/**
+	 * divide the merges of a level into the tasks of the threads
+	 */
+	private static int[][] assign(int merges[][], int numberOfThreads) {
+		int tasks[][] = new int[numberOfThreads][];
+		
+		if(merges.length >= numberOfThreads) {
+			// whole merges, the largest one to the least loaded thread
+			Integer order[] = new Integer[merges.length];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, (i1, i2) -> Integer.compare(merges[i2][2] - merges[i2][0], merges[i1][2] - merges[i1][0]));
+			long loads[] = new long[numberOfThreads];
+			int counts[] = new int[numberOfThreads];
+			int owners[] = new int[merges.length];
+			for (int i = 0; i < order.length; i++) {
+				int least = 0;
+				for (int t = 1; t < numberOfThreads; t++) {
+					if(loads[t] < loads[least])
+						least = t;
+				}
+				int merge[] = merges[order[i]];
+				loads[least] += merge[2] - merge[0];
+				owners[order[i]] = least;
+				counts[least]++;
+			}
+			for (int t = 0; t < numberOfThreads; t++) {
+				tasks[t] = new int[counts[t] * TASK_SIZE];
+				counts[t] = 0;
+			}
+			for (int i = 0; i < merges.length; i++) {
+				int t = owners[i];
+				int merge[] = merges[i];
+				int task[] = {merge[0], merge[1], merge[2], 0, merge[2] - merge[0]};
+				System.arraycopy(task, 0, tasks[t], counts[t]++ * TASK_SIZE, TASK_SIZE);
+			}
+			return tasks;
+		}
+		
+		// threads are shared by the merges in proportion to their sizes, at least one thread for each merge
+		long total = 0;
+		for (int i = 0; i < merges.length; i++) {
+			total += merges[i][2] - merges[i][0];
+		}
+		int threads[] = new int[merges.length];
+		int given = 0;
+		for (int i = 0; i < merges.length; i++) {
+			long size = merges[i][2] - merges[i][0];
+			threads[i] = 1 + (int)((numberOfThreads - merges.length) * size / Math.max(1, total));
+			given += threads[i];
+		}
+		// remaining threads go to the merges with the most elements per thread
+		while(given < numberOfThreads) {
+			int most = 0;
+			for (int i = 1; i < merges.length; i++) {
+				if((long)(merges[i][2] - merges[i][0]) * threads[most] > (long)(merges[most][2] - merges[most][0]) * threads[i])
+					most = i;
+			}
+			threads[most]++;
+			given++;
+		}
+		
+		int t = 0;
+		for (int i = 0; i < merges.length; i++) {
+			int merge[] = merges[i];
+			long size = merge[2] - merge[0];
+			for (int p = 0; p < threads[i]; p++) {
+				tasks[t++] = new int[]{merge[0], merge[1], merge[2], 
+						(int)(size * p / threads[i]), (int)(size * (p+1) / threads[i])};
+			}
+		}
+		return tasks;
+	}
+	
+	public static void main(String args[]) {
+		int bounds[] = {0, 100, 200, 300, 400, 500, 600, 700};
+		System.out.print(plan(bounds, 7));
+	}
+}
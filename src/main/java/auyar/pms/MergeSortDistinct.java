@@ -0,0 +1,270 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Parallel sort with duplicate elimination and duplicate counting
+ * It is based on MergeSortWithBarriersDTM2.java class. Double thread merging is used in the same way. 
+ * 
+ * Duplicates are removed while sorting, not after sorting: 
+ *   each thread sorts its range and compacts equal values into one. 
+ *   merge operations use mergeMinsDistinct and mergeMaxesDistinct methods. 
+ *   they write each value once. 
+ *   when two threads copy back their merged halves, 
+ *   the thread merging maxes writes its values right after the values of the thread merging mins. 
+ *   if both threads have the same value at the meeting point, it is written once. 
+ * 
+ * Therefore, blocks get shorter at every level when there are many duplicates. 
+ * Each block still starts at the same index as in MergeSortWithBarriersDTM2, 
+ * but only the beginning of it is used. The lengths of the blocks are kept in an array. 
+ * The last copy back compacts all distinct values to the beginning of the array. 
+ * 
+ * If a counts array is given, the number of times each value occurs is kept in it 
+ * and counts are added when equal values are merged. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+public class MergeSortDistinct extends Thread {
+    private int threadID;
+    private CyclicBarrier barrier;
+    private long array[];
+    private long aux[];
+    private int counts[];
+    private int auxCounts[];
+    private int lengths[][];
+    private int merged[];
+    private int numberOfThreads;
+    private SortController controller;
+    private Throwable failure;
+ 
+    /**
+     * @param counts counts of values, null if only duplicate elimination is performed
+     * @param auxCounts auxiliary array for counts, null if counts is null
+     * @param lengths lengths of blocks for two consecutive levels, two arrays with numberOfThreads elements
+     * @param merged number of values merged by each thread in the current level
+     */
+    public MergeSortDistinct(int threadID, CyclicBarrier barrier, long array[], long aux[], 
+            int counts[], int auxCounts[], int lengths[][], int merged[], int numberOfThreads, SortController controller) {
+        super("thread " + threadID);
+        this.threadID = threadID;
+        this.barrier = barrier;
+        this.array = array;
+        this.aux = aux;
+        this.counts = counts;
+        this.auxCounts = auxCounts;
+        this.lengths = lengths;
+        this.merged = merged;
+        this.numberOfThreads = numberOfThreads;
+        this.controller = controller;
+    }  
+
+    @Override
+    public void run() {
+        try {
+            int blockSize = array.length / numberOfThreads;
+            int first = threadID * blockSize;
+            int last = first + blockSize;
+            if(threadID == numberOfThreads-1)
+                last = array.length;
+            
+            // each thread sorts its sub array, removes duplicates and waits others at the barrier
+            Arrays.sort(array, first, last);
+            lengths[0][threadID] = compact(first, last);
+            controller.checkpoint();
+            controller.await(barrier);
+            
+            int numberOfBlocks = numberOfThreads;
+            int level = 0;
+            int activeThreads = (numberOfBlocks%2==0)?numberOfBlocks:numberOfBlocks-1;
+            
+            while(numberOfBlocks>1){
+            	int current[] = lengths[level%2];
+            	int next[] = lengths[(level+1)%2];
+            	
+                if(threadID<activeThreads){
+                	// both threads of a pair compute the same block boundaries
+                	int block = threadID - threadID%2;
+                    int start = block*blockSize;
+                    int second = start+blockSize;
+                    int third = second+blockSize;
+                    if(block+2 == numberOfBlocks)
+                        third = array.length;
+                    int end1 = start + current[block];
+                    int end2 = second + current[block+1];
+                    
+                    if(threadID%2 == 0)
+                    	merged[threadID] = MergeSortUtil.mergeMinsDistinct(array, aux, counts, auxCounts, start, end1, second, end2);
+                    else
+                    	merged[threadID] = MergeSortUtil.mergeMaxesDistinct(array, aux, counts, auxCounts, start, end1, second, end2, third);
+                    controller.await(barrier);
+                    
+                    int mins = merged[block];
+                    int maxes = merged[block+1];
+                    // the same value may be the last one of mins and the first one of maxes
+                    int duplicate = (mins > 0 && maxes > 0 && aux[start+mins-1] == aux[third-maxes]) ? 1 : 0;
+                    
+                    // copy back the merged values to the original array
+                    if(threadID%2 == 0){
+                    	System.arraycopy(aux, start, array, start, mins);
+                    	if(counts != null){
+                    		System.arraycopy(auxCounts, start, counts, start, mins);
+                    		if(duplicate == 1)
+                    			counts[start+mins-1] += auxCounts[third-maxes];
+                    	}
+                    	next[block/2] = mins + maxes - duplicate;
+                    }else{
+                    	System.arraycopy(aux, third-maxes+duplicate, array, start+mins, maxes-duplicate);
+                    	if(counts != null)
+                    		System.arraycopy(auxCounts, third-maxes+duplicate, counts, start+mins, maxes-duplicate);
+                    }
+                }else{
+                	// the last block is not merged in this level, its length stays the same
+                	if(threadID == numberOfBlocks-1)
+                		next[threadID/2] = current[threadID];
+                	// idle looping threads wait to synchronize 
+                    controller.await(barrier);
+                }
+                blockSize *= 2;
+                level++;
+                numberOfBlocks = (int)Math.ceil(numberOfBlocks/2.0);
+                activeThreads = (numberOfBlocks%2==0)?numberOfBlocks:numberOfBlocks-1;
+                controller.checkpoint();
+                controller.await(barrier);
+            }
+            
+        } catch (BrokenBarrierException ex) {
+            // another thread has failed or the sort is cancelled, its failure is reported
+            failure = ex;
+        } catch (Throwable ex) {
+            failure = ex;
+            SortController.breakBarrier(barrier);
+        }
+    }
+    
+    /**
+     * keep one of each value in a sorted range, starting from the first index
+     * if counts are kept, count the number of times each value occurs
+     * returns the number of distinct values in the range
+     */
+    private int compact(int first, int last) {
+    	int index = first;
+    	for (int i = first; i < last; i++) {
+    		if(index > first && array[index-1] == array[i]){
+    			if(counts != null)
+    				counts[index-1]++;
+    		}else{
+    			array[index] = array[i];
+    			if(counts != null)
+    				counts[index] = 1;
+    			index++;
+    		}
+		}
+    	return index - first;
+    }
+
+    /**
+     * sort the array and remove duplicates using all available processors
+     * @param array the array to be sorted
+     * @return the number of distinct values. they are at the beginning of the array. 
+     *         the rest of the array is unspecified. 
+     */
+    public static int parallelSortDistinct(long array[]) {
+    	return parallelSortDistinct(array, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * sort the array and remove duplicates
+     * @param array the array to be sorted
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @return the number of distinct values. they are at the beginning of the array. 
+     *         the rest of the array is unspecified. 
+     */
+    public static int parallelSortDistinct(long array[], int numberOfThreads) {
+    	return sort(array, null, numberOfThreads);
+    }
+    
+    /**
+     * sort the array, remove duplicates and count how many times each value occurs
+     * value array[i] occurs counts[i] times in the original array
+     * @param array the array to be sorted
+     * @param counts the array that counts are written to. it must be at least as long as the array
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @return the number of distinct values. they are at the beginning of the array and counts arrays. 
+     *         the rest of both arrays are unspecified. 
+     */
+    public static int sortAndCount(long array[], int counts[], int numberOfThreads) {
+        if(counts.length < array.length)
+            throw new IllegalArgumentException("counts array is shorter than the array: " 
+                    + counts.length + " < " + array.length);
+    	return sort(array, counts, numberOfThreads);
+    }
+    
+    private static int sort(long array[], int counts[], int numberOfThreads) {
+    	
+        long aux[] = new long[array.length];
+        int auxCounts[] = (counts == null) ? null : new int[array.length];
+        int lengths[][] = new int[2][numberOfThreads];
+        int merged[] = new int[numberOfThreads];
+        SortController controller = new SortController();
+        
+    	CyclicBarrier barrier = new CyclicBarrier(numberOfThreads);
+    	
+    	MergeSortDistinct threads[] = new MergeSortDistinct[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new MergeSortDistinct(i, barrier, array, aux, counts, auxCounts, lengths, merged, numberOfThreads, controller);
+            threads[i].start();
+        }
+        
+        controller.joinAll(threads);
+        
+        Throwable failures[] = new Throwable[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            failures[i] = threads[i].failure;
+        }
+        SortController.rethrow(failures);
+        
+        // the number of merge levels decides which length array has the final length
+        int levels = 0;
+        for (int blocks = numberOfThreads; blocks > 1; blocks = (blocks+1)/2)
+        	levels++;
+        return lengths[levels%2][0];
+    }
+    
+    public static void main(String args[]){
+        int numberOfThreads = 4;
+        int arraySize = 8000003;
+        long array[] = new long[arraySize];
+        int counts[] = new int[arraySize];
+        
+        java.util.Random r = new java.util.Random(20);
+        for (int i = 0; i < array.length; i++) {
+			array[i] = r.nextInt(100000);
+		}
+
+        long startTime = System.currentTimeMillis();
+        int distinct = sortAndCount(array, counts, numberOfThreads);
+        long duration = System.currentTimeMillis() - startTime;
+        
+        System.out.println("parallel sort and count time: "+duration);
+        System.out.println("distinct values: "+distinct);
+        MergeSortUtil.isSorted(Arrays.copyOf(array, distinct));
+    }
+
+}
@@ -20,9 +20,23 @@ package auyar.pms;
  * classical recursive mergesort algorithm
  * sorting a long array
  * 
+ * short sub arrays are sorted by insertion sort instead of recursing down to single elements. 
+ * 
+ * this class also has the sequential sorts that are used as leaf sorters by parallel engines: 
+ *   bottom-up merge sort with an auxiliary array, runs of 8 elements are sorted by a sorting network 
+ *   radix sort with an auxiliary array 
+ *   bottom-up merge sort of interleaved long pairs, for PairMergeSort 
+ * 
  * @author Ahmet Uyar
  */
+import java.util.Arrays;
+
 public class MergeSortSeq {
+	
+	// sub arrays shorter than this are sorted by insertion sort
+	static final int INSERTION_THRESHOLD = 16;
+	// length of the runs that the bottom-up merge sort starts with
+	static final int RUN_LENGTH = 8;
     
 	/**
 	 * classical recursive merge sort algorithm
@@ -33,7 +47,8 @@ public class MergeSortSeq {
 	 * @param last last index of the sub array to be sorted (inclusive)
 	 */
     public static void mergeSort(long array[], int first, int last) {
-        if (first == last) {
+        if (last - first < INSERTION_THRESHOLD) {
+            insertionSort(array, first, last + 1);
             return;
         }
         int middle = (first + last) / 2;
@@ -42,6 +57,159 @@ public class MergeSortSeq {
         MergeSortUtil.merge(array, aux, first, middle + 1, last+1);
     }
     
+    /**
+     * insertion sort of array[first, last)
+     */
+    public static void insertionSort(long array[], int first, int last) {
+    	for (int i = first + 1; i < last; i++) {
+			long value = array[i];
+			int j = i - 1;
+			while(j >= first && array[j] > value) {
+				array[j+1] = array[j];
+				j--;
+			}
+			array[j+1] = value;
+		}
+    }
+    
+    private static void compareExchange(long array[], int i, int j) {
+    	long a = array[i];
+    	long b = array[j];
+    	// conditional moves instead of a branch
+    	array[i] = Math.min(a, b);
+    	array[j] = Math.max(a, b);
+    }
+    
+    /**
+     * sort 8 elements starting from first with a sorting network of 19 comparators
+     */
+    public static void sort8(long array[], int first) {
+    	int f = first;
+    	compareExchange(array, f, f+2); compareExchange(array, f+1, f+3); 
+    	compareExchange(array, f+4, f+6); compareExchange(array, f+5, f+7);
+    	compareExchange(array, f, f+4); compareExchange(array, f+1, f+5); 
+    	compareExchange(array, f+2, f+6); compareExchange(array, f+3, f+7);
+    	compareExchange(array, f, f+1); compareExchange(array, f+2, f+3); 
+    	compareExchange(array, f+4, f+5); compareExchange(array, f+6, f+7);
+    	compareExchange(array, f+2, f+4); compareExchange(array, f+3, f+5);
+    	compareExchange(array, f+1, f+4); compareExchange(array, f+3, f+6);
+    	compareExchange(array, f+1, f+2); compareExchange(array, f+3, f+4); compareExchange(array, f+5, f+6);
+    }
+    
+    /**
+     * bottom-up merge sort of array[first, last), last index is exclusive
+     * unlike mergeSort, whose last index is inclusive
+     * runs are merged from the array to the auxiliary array and back, without copying back after each merge. 
+     * if the last pass ends in the auxiliary array, the range is copied to the array once. 
+     */
+    public static void bottomUpMergeSort(long array[], long aux[], int first, int last) {
+    	for (int start = first; start < last; start += RUN_LENGTH) {
+    		if(last - start >= RUN_LENGTH)
+    			sort8(array, start);
+    		else
+    			insertionSort(array, start, last);
+		}
+    	
+    	long from[] = array, to[] = aux;
+    	for (int width = RUN_LENGTH; width < last - first; width *= 2) {
+    		for (int start = first; start < last; start += 2 * width) {
+    			int second = (int)Math.min(last, (long)start + width);
+    			int end = (int)Math.min(last, (long)start + 2 * width);
+    			MergeSortUtil.mergeRanges(from, to, start, second, second, end, start);
+			}
+    		long temp[] = from;
+    		from = to;
+    		to = temp;
+		}
+    	if(from != array)
+    		System.arraycopy(from, first, array, first, last - first);
+    }
+    
+    /**
+     * insertion sort of the pairs [first, last) of an interleaved array
+     * pair i is (array[2i], array[2i+1]), pairs are compared by the first long, then by the second one
+     */
+    public static void insertionSortPairs(long array[], int first, int last) {
+    	for (int i = first + 1; i < last; i++) {
+    		long hi = array[2*i];
+    		long lo = array[2*i+1];
+    		int j = i - 1;
+    		while(j >= first && (array[2*j] > hi || (array[2*j] == hi && array[2*j+1] > lo))) {
+    			array[2*j+2] = array[2*j];
+    			array[2*j+3] = array[2*j+1];
+    			j--;
+    		}
+    		array[2*j+2] = hi;
+    		array[2*j+3] = lo;
+    	}
+    }
+    
+    /**
+     * bottom-up merge sort of the pairs [first, last) of an interleaved array
+     * runs of INSERTION_THRESHOLD pairs are sorted by insertion sort, then merged as in mergeSort
+     */
+    public static void mergeSortPairs(long array[], long aux[], int first, int last) {
+    	for (int start = first; start < last; start += INSERTION_THRESHOLD) {
+    		insertionSortPairs(array, start, Math.min(last, start + INSERTION_THRESHOLD));
+    	}
+    	
+    	long from[] = array, to[] = aux;
+    	for (int width = INSERTION_THRESHOLD; width < last - first; width *= 2) {
+    		for (int start = first; start < last; start += 2 * width) {
+    			int second = (int)Math.min(last, (long)start + width);
+    			int end = (int)Math.min(last, (long)start + 2 * width);
+    			MergeSortUtil.mergePairRanges(from, to, start, second, second, end, start);
+    		}
+    		long temp[] = from;
+    		from = to;
+    		to = temp;
+    	}
+    	if(from != array)
+    		System.arraycopy(from, 2*first, array, 2*first, 2*(last - first));
+    }
+    
+    /**
+     * least significant digit radix sort of array[first, last) with 8 bit digits
+     * the sign bit is flipped in the last digit, so that negative values come first
+     */
+    public static void radixSort(long array[], long aux[], int first, int last) {
+    	if(last - first < INSERTION_THRESHOLD) {
+    		insertionSort(array, first, last);
+    		return;
+    	}
+    	
+    	long from[] = array, to[] = aux;
+    	int counts[] = new int[257];
+    	for (int shift = 0; shift < 64; shift += 8) {
+    		long flip = (shift == 56) ? 0x80 : 0;
+    		Arrays.fill(counts, 0);
+    		for (int i = first; i < last; i++) {
+    			counts[(int)(((from[i] >>> shift) & 0xFF) ^ flip) + 1]++;
+			}
+    		// all elements have the same digit, this pass would not move any element
+    		boolean skip = false;
+    		for (int d = 1; d <= 256 && !skip; d++) {
+    			skip = counts[d] == last - first;
+			}
+    		if(skip)
+    			continue;
+    		
+    		counts[0] = first;
+    		for (int d = 1; d <= 256; d++) {
+    			counts[d] += counts[d-1];
+			}
+    		for (int i = first; i < last; i++) {
+    			long value = from[i];
+    			to[counts[(int)(((value >>> shift) & 0xFF) ^ flip)]++] = value;
+			}
+    		long temp[] = from;
+    		from = to;
+    		to = temp;
+		}
+    	if(from != array)
+    		System.arraycopy(from, first, array, first, last - first);
+    }
+    
     static long dd[] = {50, 70, 45, 30, 34, 78, 56, 10};
     static long aux[];
 
@@ -26,6 +26,14 @@ package auyar.pms;
  * mergeMins and mergeMaxes are expected to be executed by two different threads simultaneously
  * Consequently, merge operation is handled by two concurrent threads in parallel
  * 
+ * mergeMinsDistinct and mergeMaxesDistinct methods are their duplicate eliminating versions
+ * int versions of mergeMins and mergeMaxes are used by MergeSortWithBarriersIntDTM
+ * pair versions of merge, mergeMins, mergeMaxes and mergeRanges sort 128 bit keys for PairMergeSort
+ * 
+ * coRank method finds where the smallest k elements of two sorted subarrays end in each subarray
+ * mergeRanges method merges a part of two sorted subarrays, given by coRank, to another array
+ * mergeInPlace method merges two sorted subarrays with a buffer of any length, using rotations
+ * 
  * isSorted method checks whether the given array is sorted in increasing order
  * 
  * @author Ahmet Uyar
@@ -175,26 +183,519 @@ public class MergeSortUtil {
         return (last - index3 -1);
     }
 
+    /**
+     * int version of mergeMins method
+     * merge smaller values in the first half of the auxiliary array
+     * 
+     * returns the number of merged elements
+     */
+    public static int mergeMins(int d1[], int aux[], int start1, int start2, int last){
+        int index1 = start1;
+        int index2 = start2;
+        int index3 = start1;
+        int elementsToMerge = (last - start1)/2;
+        int counter = 0;
+        
+        while(index1<start2 && index2<last  && counter<elementsToMerge){
+            if(d1[index1] < d1[index2])
+                aux[index3++] = d1[index1++];
+            else
+                aux[index3++] = d1[index2++];
+            counter++;
+        }
+        while(index1<start2  && counter<elementsToMerge){
+            aux[index3++] = d1[index1++];
+            counter++;
+        }
+        while(index2<last  && counter<elementsToMerge){
+            aux[index3++] = d1[index2++];
+            counter++;
+        }
+        
+        return (index3-start1);
+    }
+
+    /**
+     * int version of mergeMaxes method
+     * merge larger values and put in the second half of the auxiliary array
+     * 
+     * returns the number of merged elements
+     */
+    public static int mergeMaxes(int d1[], int aux[], int start1, int start2, int last){
+        int index1 = start2-1;
+        int index2 = last-1;
+        int index3 = last-1;
+        int elementsToMerge = (int)Math.ceil( (last - start1)/2.0 );
+        int counter = 0;
+        
+        while(index1>=start1 && index2>=start2  && counter<elementsToMerge){
+            if(d1[index1] > d1[index2])
+                aux[index3--] = d1[index1--];
+            else
+                aux[index3--] = d1[index2--];
+            counter++;
+        }
+        while(index1>=start1  && counter<elementsToMerge){
+            aux[index3--] = d1[index1--];
+            counter++;
+        }
+        while(index2>=start2  && counter<elementsToMerge){
+            aux[index3--] = d1[index2--];
+            counter++;
+        }
+        
+        return (last - index3 -1);
+    }
+
+    /**
+     * pair versions of the merge methods
+     * element i of an interleaved array is the pair (d1[2i], d1[2i+1]). 
+     * pairs are compared by the first long, then by the second long, both as signed values. 
+     * start and last indexes are pair indexes, not long indexes. 
+     */
+    static boolean lessPair(long d1[], int i, int j){
+        long hi1 = d1[2*i], hi2 = d1[2*j];
+        return hi1 < hi2 || (hi1 == hi2 && d1[2*i+1] < d1[2*j+1]);
+    }
+
+    private static void copyPair(long from[], int i, long to[], int j){
+        to[2*j] = from[2*i];
+        to[2*j+1] = from[2*i+1];
+    }
+
+    /**
+     * merge two sorted subarrays of pairs and copy them back
+     */
+    public static void mergePairs(long d1[], long aux[], int start1, int start2, int last){
+        mergePairRanges(d1, aux, start1, start2, start2, last, start1);
+        System.arraycopy(aux, 2*start1, d1, 2*start1, 2*(last-start1));
+    }
+
+    /**
+     * merge two sorted ranges of pairs to the auxiliary array starting from the pair index out
+     * equal pairs are taken from the first range first
+     * 
+     * returns the pair index after the last merged pair in the auxiliary array
+     */
+    public static int mergePairRanges(long d1[], long aux[], int index1, int end1, int index2, int end2, int out){
+        while(index1<end1 && index2<end2){
+            if(lessPair(d1, index2, index1))
+                copyPair(d1, index2++, aux, out++);
+            else
+                copyPair(d1, index1++, aux, out++);
+        }
+        System.arraycopy(d1, 2*index1, aux, 2*out, 2*(end1-index1));
+        out += end1-index1;
+        System.arraycopy(d1, 2*index2, aux, 2*out, 2*(end2-index2));
+        return out + end2-index2;
+    }
+
+    /**
+     * pair version of mergeMins method
+     * merge smaller pairs in the first half of the auxiliary array
+     * 
+     * returns the number of merged pairs
+     */
+    public static int mergePairMins(long d1[], long aux[], int start1, int start2, int last){
+        int index1 = start1;
+        int index2 = start2;
+        int index3 = start1;
+        int elementsToMerge = (last - start1)/2;
+        
+        while(index3-start1 < elementsToMerge){
+            if(index2>=last || (index1<start2 && !lessPair(d1, index2, index1)))
+                copyPair(d1, index1++, aux, index3++);
+            else
+                copyPair(d1, index2++, aux, index3++);
+        }
+        return (index3-start1);
+    }
+
+    /**
+     * pair version of mergeMaxes method
+     * merge larger pairs and put in the second half of the auxiliary array
+     * 
+     * returns the number of merged pairs
+     */
+    public static int mergePairMaxes(long d1[], long aux[], int start1, int start2, int last){
+        int index1 = start2-1;
+        int index2 = last-1;
+        int index3 = last-1;
+        int elementsToMerge = (int)Math.ceil( (last - start1)/2.0 );
+        
+        while(last-1-index3 < elementsToMerge){
+            if(index1<start1 || (index2>=start2 && !lessPair(d1, index2, index1)))
+                copyPair(d1, index2--, aux, index3--);
+            else
+                copyPair(d1, index1--, aux, index3--);
+        }
+        return (last - index3 -1);
+    }
+
+    /**
+     * merge half of two sorted subarrays without duplicates, and drop duplicate values
+     * it is the duplicate eliminating version of mergeMins method
+     * the two subarrays do not need to be consecutive. each one has no duplicates in itself.
+     * merged values are written to the auxiliary array starting from start1
+     * 
+     * when a value is in both subarrays, it is written once.
+     * if count arrays are given, counts of equal values are added. they may be null.
+     * 
+     * @param start1 the start index of the first sorted block
+     * @param end1 the first index after the first sorted block
+     * @param start2 the start index of the second sorted block
+     * @param end2 the first index after the second sorted block
+     * 
+     * returns the number of distinct values written to the auxiliary array
+     */
+    public static int mergeMinsDistinct(long d1[], long aux[], int c1[], int cAux[], 
+    		int start1, int end1, int start2, int end2){
+        int index1 = start1;
+        int index2 = start2;
+        int index3 = start1;
+        int elementsToMerge = (end1 - start1 + end2 - start2)/2;
+        
+        for (int counter = 0; counter < elementsToMerge; counter++) {
+        	long value;
+        	int count = 0;
+        	// take from the first subarray if the second one is finished or its minimum is not larger
+        	// ties are taken from the first subarray here and from the second one in mergeMaxesDistinct, 
+        	// so that two threads never take the same element
+            if(index2 >= end2 || (index1 < end1 && d1[index1] <= d1[index2])){
+            	value = d1[index1];
+            	if(c1 != null)
+            		count = c1[index1];
+                index1++;
+            }else{
+            	value = d1[index2];
+            	if(c1 != null)
+            		count = c1[index2];
+                index2++;
+            }
+            
+            // the same value as the last written one is not written again
+            if(index3 > start1 && aux[index3-1] == value){
+            	if(cAux != null)
+            		cAux[index3-1] += count;
+            }else{
+            	aux[index3] = value;
+            	if(cAux != null)
+            		cAux[index3] = count;
+            	index3++;
+            }
+        }
+        
+        return (index3-start1);
+    }
+
+    /**
+     * merge the other half of two sorted subarrays without duplicates, and drop duplicate values
+     * it is the duplicate eliminating version of mergeMaxes method
+     * merged values are written to the auxiliary array backwards, ending just before last
+     * 
+     * the minimum written by this method may be equal to the maximum written by mergeMinsDistinct. 
+     * callers need to check it when they put two halves together. 
+     * 
+     * @param start1 the start index of the first sorted block
+     * @param end1 the first index after the first sorted block
+     * @param start2 the start index of the second sorted block
+     * @param end2 the first index after the second sorted block
+     * @param last the first index after the merged values in the auxiliary array
+     * 
+     * returns the number of distinct values written to the auxiliary array
+     */
+    public static int mergeMaxesDistinct(long d1[], long aux[], int c1[], int cAux[], 
+    		int start1, int end1, int start2, int end2, int last){
+        int index1 = end1-1;
+        int index2 = end2-1;
+        int index3 = last-1;
+        int total = end1 - start1 + end2 - start2;
+        int elementsToMerge = total - total/2;
+        
+        for (int counter = 0; counter < elementsToMerge; counter++) {
+        	long value;
+        	int count = 0;
+        	// take from the first subarray if the second one is finished or its maximum is larger
+            if(index2 < start2 || (index1 >= start1 && d1[index1] > d1[index2])){
+            	value = d1[index1];
+            	if(c1 != null)
+            		count = c1[index1];
+                index1--;
+            }else{
+            	value = d1[index2];
+            	if(c1 != null)
+            		count = c1[index2];
+                index2--;
+            }
+            
+            // the same value as the last written one is not written again
+            if(index3 < last-1 && aux[index3+1] == value){
+            	if(cAux != null)
+            		cAux[index3+1] += count;
+            }else{
+            	aux[index3] = value;
+            	if(cAux != null)
+            		cAux[index3] = count;
+            	index3--;
+            }
+        }
+        
+        return (last - index3 -1);
+    }
+
+    /**
+     * co-rank of two sorted consecutive subarrays
+     * finds how many of the smallest k merged elements come from the first subarray
+     * when the same value is in both subarrays, the ones in the first subarray come first
+     * 
+     * @param start1 the start index of the first sorted block
+     * @param start2 the start index of the second sorted block
+     * @param last the first element after the second sorted block
+     * @param k number of the smallest elements, between 0 and (last - start1)
+     * 
+     * returns the number of elements from the first subarray, 
+     * the other (k - returned value) elements come from the second subarray
+     */
+    public static int coRank(long d1[], int start1, int start2, int last, int k){
+    	return coRank(d1, start1, start2 - start1, d1, start2, last - start2, k);
+    }
+
+    /**
+     * co-rank of two sorted subarrays that may be in different arrays
+     * finds how many of the smallest k merged elements come from d1[start1, start1+length1)
+     * the other (k - returned value) elements come from d2[start2, start2+length2)
+     * when the same value is in both subarrays, the ones in the first subarray come first
+     */
+    public static int coRank(long d1[], int start1, int length1, long d2[], int start2, int length2, int k){
+    	int low = Math.max(0, k - length2);
+    	int high = Math.min(k, length1);
+    	
+    	// find the smallest i where the i'th element of the first subarray 
+    	// is larger than the (k-i-1)'th element of the second subarray
+    	while(low < high){
+    		int i = (low + high) >>> 1;
+    		int j = k - i;
+    		if(d1[start1 + i] <= d2[start2 + j - 1])
+    			low = i + 1;
+    		else
+    			high = i;
+    	}
+    	return low;
+    }
+
+    /**
+     * merge two sorted ranges to the auxiliary array starting from the index out
+     * equal values are taken from the first range first, as coRank assumes
+     * the auxiliary array may be a small buffer, since ranges can be anywhere in the array
+     * 
+     * returns the index after the last merged element in the auxiliary array
+     */
+    public static int mergeRanges(long d1[], long aux[], int index1, int end1, int index2, int end2, int out){
+    	while(index1<end1 && index2<end2){
+    		if(d1[index1] <= d1[index2])
+    			aux[out++] = d1[index1++];
+    		else
+    			aux[out++] = d1[index2++];
+    	}
+    	System.arraycopy(d1, index1, aux, out, end1-index1);
+    	out += end1-index1;
+    	System.arraycopy(d1, index2, aux, out, end2-index2);
+    	return out + end2-index2;
+    }
+
+    /**
+     * rotate a range so that the second part comes before the first part
+     * if the shorter part fits in the buffer, it is rotated by copying
+     * otherwise it is rotated in place by three reversals
+     * 
+     * @param first the start index of the first part
+     * @param middle the start index of the second part
+     * @param last the first index after the second part
+     * @param buffer auxiliary buffer, it may have any length
+     */
+    public static void rotate(long d1[], int first, int middle, int last, long buffer[]){
+    	int length1 = middle - first;
+    	int length2 = last - middle;
+    	if(length1 == 0 || length2 == 0)
+    		return;
+    	
+    	if(length1 <= length2 && length1 <= buffer.length){
+    		System.arraycopy(d1, first, buffer, 0, length1);
+    		System.arraycopy(d1, middle, d1, first, length2);
+    		System.arraycopy(buffer, 0, d1, first + length2, length1);
+    	}else if(length2 <= buffer.length){
+    		System.arraycopy(d1, middle, buffer, 0, length2);
+    		System.arraycopy(d1, first, d1, first + length2, length1);
+    		System.arraycopy(buffer, 0, d1, first, length2);
+    	}else{
+    		reverse(d1, first, middle);
+    		reverse(d1, middle, last);
+    		reverse(d1, first, last);
+    	}
+    }
+    
+    private static void reverse(long d1[], int first, int last){
+    	for (int i = first, j = last - 1; i < j; i++, j--) {
+			long temp = d1[i];
+			d1[i] = d1[j];
+			d1[j] = temp;
+		}
+    }
+
+    /**
+     * one part of the reversal of a range, so that several threads can reverse a range together
+     * the swaps of the reversal are divided into parts, this method performs the given part of them
+     * 
+     * @param part the part of the swaps to perform, between 0 and parts-1
+     * @param parts number of threads that reverse the range
+     */
+    public static void reversePart(long d1[], int first, int last, int part, int parts){
+    	int swaps = (last - first) / 2;
+    	int from = (int)((long)swaps * part / parts);
+    	int to = (int)((long)swaps * (part+1) / parts);
+    	for (int i = first + from, j = last - 1 - from; i < first + to; i++, j--) {
+			long temp = d1[i];
+			d1[i] = d1[j];
+			d1[j] = temp;
+		}
+    }
+
+    /**
+     * merge two sorted consecutive subarrays in place with a small buffer
+     * if the shorter subarray fits in the buffer, it is copied to the buffer and merged back. 
+     * otherwise, the longer subarray is split at its middle element, 
+     * the position of that element in the other subarray is found by binary search, 
+     * the two parts in between are rotated, and two smaller merges are performed. 
+     * 
+     * with a buffer of length zero, all merges are done by rotations. 
+     * 
+     * @param first the start index of the first sorted block
+     * @param middle the start index of the second sorted block
+     * @param last the first element after the second sorted block
+     * @param buffer auxiliary buffer, it may have any length
+     */
+    public static void mergeInPlace(long d1[], int first, int middle, int last, long buffer[]){
+    	while(true){
+	    	int length1 = middle - first;
+	    	int length2 = last - middle;
+	    	// nothing to merge or already in order
+	    	if(length1 == 0 || length2 == 0 || d1[middle-1] <= d1[middle])
+	    		return;
+	    	
+	    	// two elements in reverse order
+	    	if(length1 + length2 == 2){
+	    		long temp = d1[first];
+	    		d1[first] = d1[middle];
+	    		d1[middle] = temp;
+	    		return;
+	    	}
+	    	
+	    	if(length1 <= length2 && length1 <= buffer.length){
+	    		// merge from the beginning, the first subarray is in the buffer
+	    		System.arraycopy(d1, first, buffer, 0, length1);
+	    		int index1 = 0, index2 = middle, index3 = first;
+	    		while(index1 < length1 && index2 < last){
+	    			if(d1[index2] < buffer[index1])
+	    				d1[index3++] = d1[index2++];
+	    			else
+	    				d1[index3++] = buffer[index1++];
+	    		}
+	    		System.arraycopy(buffer, index1, d1, index3, length1 - index1);
+	    		return;
+	    	}
+	    	
+	    	if(length2 <= buffer.length){
+	    		// merge from the end, the second subarray is in the buffer
+	    		System.arraycopy(d1, middle, buffer, 0, length2);
+	    		int index1 = middle - 1, index2 = length2 - 1, index3 = last - 1;
+	    		while(index1 >= first && index2 >= 0){
+	    			if(d1[index1] > buffer[index2])
+	    				d1[index3--] = d1[index1--];
+	    			else
+	    				d1[index3--] = buffer[index2--];
+	    		}
+	    		System.arraycopy(buffer, 0, d1, first, index2 + 1);
+	    		return;
+	    	}
+	    	
+	    	// split the longer subarray at its middle
+	    	int cut1, cut2;
+	    	if(length1 > length2){
+	    		cut1 = first + length1/2;
+	    		cut2 = lowerBound(d1, middle, last, d1[cut1]);
+	    	}else{
+	    		cut2 = middle + length2/2;
+	    		cut1 = upperBound(d1, first, middle, d1[cut2]);
+	    	}
+	    	rotate(d1, cut1, middle, cut2, buffer);
+	    	int newMiddle = cut1 + (cut2 - middle);
+	    	
+	    	// recursion on the shorter part, loop on the longer part
+	    	if(newMiddle - first < last - newMiddle){
+	    		mergeInPlace(d1, first, cut1, newMiddle, buffer);
+	    		first = newMiddle;
+	    		middle = cut2;
+	    	}else{
+	    		mergeInPlace(d1, newMiddle, cut2, last, buffer);
+	    		last = newMiddle;
+	    		middle = cut1;
+	    	}
+    	}
+    }
+    
+    /**
+     * returns the index of the first element that is not less than the key in a sorted range
+     */
+    public static int lowerBound(long d1[], int first, int last, long key){
+    	while(first < last){
+    		int middle = (first + last) >>> 1;
+    		if(d1[middle] < key)
+    			first = middle + 1;
+    		else
+    			last = middle;
+    	}
+    	return first;
+    }
+    
+    /**
+     * returns the index of the first element that is larger than the key in a sorted range
+     */
+    public static int upperBound(long d1[], int first, int last, long key){
+    	while(first < last){
+    		int middle = (first + last) >>> 1;
+    		if(d1[middle] <= key)
+    			first = middle + 1;
+    		else
+    			last = middle;
+    	}
+    	return first;
+    }
+
     /**
      * check whether the given array is sorted.
-     * If not, print an error message for each unsorted pair 
+     * If not, print an error message for the first unsorted pair and the number of unsorted pairs
+     * SortVerifier class checks large arrays in parallel
      * 
      * @param array the array to be checked whether it is sorted in increasing order
      */
     public static void isSorted(long array[]) {
     	
-    	boolean sorted = true;
+    	int unsortedPairs = 0;
         for (int i = 0; i < array.length-1; i++) {
             if(array[i] > array[i+1]){
-                System.out.println("not sorted");
-                System.out.println(i+": "+array[i]);
-                System.out.println((i+1)+": "+array[i+1]);
-                sorted = false;
+            	if(unsortedPairs == 0){
+            		System.out.println("not sorted");
+            		System.out.println(i+": "+array[i]);
+            		System.out.println((i+1)+": "+array[i+1]);
+            	}
+                unsortedPairs++;
             }
         }
         
-        if(sorted)
+        if(unsortedPairs == 0)
         	System.out.println("array is sorted.");
+        else
+        	System.out.println("number of unsorted pairs: " + unsortedPairs);
     }    
     
     /**
@@ -227,23 +728,20 @@ public class MergeSortUtil {
      * Assumption 1: the number of elements to be sorted is divisible by the number of threads. 
      * Assumption 2: the number of threads is 2^k where k is an integer. 
      * 
-     * If any of these two assumptions does not hold, quit the program
+     * If any of these two assumptions does not hold, throw IllegalArgumentException
      * 
      * @param arraySize the size of the input array
      * @param numberOfThreads the number of threads that will perform parallel sort
      */
     public static void checkInput(int arraySize, int numberOfThreads) {
-    	if(!MergeSortUtil.checkPowerOfTwo(numberOfThreads)) {
-    		System.out.println("Number of threads must be a power of two.");
-    		System.out.println(numberOfThreads + " is not a power of two.");
-        	System.exit(0);
+    	if(numberOfThreads <= 0 || !MergeSortUtil.checkPowerOfTwo(numberOfThreads)) {
+    		throw new IllegalArgumentException("Number of threads must be a power of two. "
+    				+ numberOfThreads + " is not a power of two.");
     	}
     	
     	if((arraySize % numberOfThreads) != 0) {
-    		System.out.println("number of elements must be divisible by the number of threads.");
-    		System.out.println("number of elements: " + arraySize);
-    		System.out.println("number of threads: " + numberOfThreads);
-        	System.exit(0);
+    		throw new IllegalArgumentException("number of elements must be divisible by the number of threads. "
+    				+ "number of elements: " + arraySize + ", number of threads: " + numberOfThreads);
     	}
     }    
     
@@ -17,6 +17,7 @@ package auyar.pms;
 import java.util.Arrays;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Iterative parallel merge sort with double thread merging
@@ -52,6 +53,11 @@ import java.util.concurrent.CyclicBarrier;
  *     a) after merging two sorted subarrays
  *     b) after copying back to the original array 
  * 
+ * Cancellation and failures: 
+ *   threads check the SortController between merge levels. 
+ *   a failing or cancelled thread breaks the barrier, 
+ *   and the failure is rethrown in the calling thread. 
+ * 
  * @author Ahmet Uyar
  */
 public class MergeSortWithBarriersDTM1 extends Thread {
@@ -60,14 +66,22 @@ public class MergeSortWithBarriersDTM1 extends Thread {
     private long array[];
     private long aux[];
     private int numberOfThreads;
+    private SortController controller;
+    private Throwable failure;
  
     public MergeSortWithBarriersDTM1(int threadID, CyclicBarrier barrier, long array[], long aux[], int numberOfThreads) {
+        this(threadID, barrier, array, aux, numberOfThreads, new SortController());
+    }
+
+    public MergeSortWithBarriersDTM1(int threadID, CyclicBarrier barrier, long array[], long aux[], int numberOfThreads, 
+            SortController controller) {
         super("thread " + threadID);
         this.threadID = threadID;
         this.barrier = barrier;
         this.array = array;
         this.aux = aux;
         this.numberOfThreads = numberOfThreads;
+        this.controller = controller;
     }    
 
     @Override
@@ -81,7 +95,8 @@ public class MergeSortWithBarriersDTM1 extends Thread {
             Arrays.sort(array, first, last);
             
             // before merge operations to start, all threads need to finish sequential search of their block
-            barrier.await();
+            controller.checkpoint();
+            controller.await(barrier);
             
             // activeThreads variable keeps count of threads that will perform merging in every iteration
             // threads with threadID values lower than activeThreads will perform merging in that iteration
@@ -93,7 +108,7 @@ public class MergeSortWithBarriersDTM1 extends Thread {
                     int second = start+blockSize;
                     int third = second+blockSize;
                     MergeSortUtil.mergeMins(array, aux, start, second, third);
-                    barrier.await();
+                    controller.await(barrier);
                     // copy back the merged block to the original array
                     System.arraycopy(aux, start, array, start, blockSize);
                     
@@ -103,26 +118,28 @@ public class MergeSortWithBarriersDTM1 extends Thread {
                     int second = start+blockSize;
                     int third = second+blockSize;
                     MergeSortUtil.mergeMaxes(array, aux, start, second, third);
-                    barrier.await();
+                    controller.await(barrier);
                     // copy back the merged block to the original array
                     System.arraycopy(aux, second, array, second, blockSize);
                 }else{
                 	// idle looping threads wait to synchronize other threads to finish merge operation
-                    barrier.await();
+                    controller.await(barrier);
                 }
                 // blockSize is doubled after every merge operation
                 blockSize *= 2;
                 // number of active threads is reduced by half after every merge operation
                 activeThreads = activeThreads/2;
-                barrier.await();
+                // cancellation is checked between merge levels
+                controller.checkpoint();
+                controller.await(barrier);
             }
             
-        } catch (InterruptedException ex) {
-            System.out.println("exception error message: " + ex.getMessage());
-            ex.printStackTrace();
         } catch (BrokenBarrierException ex) {
-            System.out.println("exception error message: " + ex.getMessage());
-            ex.printStackTrace();
+            // another thread has failed or the sort is cancelled, its failure is reported
+            failure = ex;
+        } catch (Throwable ex) {
+            failure = ex;
+            SortController.breakBarrier(barrier);
         }
     }
     
@@ -132,6 +149,30 @@ public class MergeSortWithBarriersDTM1 extends Thread {
      * @param numberOfThreads user specifies the number of threads that will sort
      */
     public static void parallelMergeSort(long array[], int numberOfThreads) {
+        parallelMergeSort(array, numberOfThreads, new SortController());
+    }
+
+    /**
+     * a parallel sort method that gives up when the timeout passes
+     * throws CancellationException if the array could not be sorted in time
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param timeout maximum sorting time
+     * @param unit time unit of the timeout argument
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, long timeout, TimeUnit unit) {
+        parallelMergeSort(array, numberOfThreads, new SortController(timeout, unit));
+    }
+
+    /**
+     * a parallel sort method that can be cancelled through the given controller
+     * throws CancellationException if the sort is cancelled, its deadline passes or the calling thread is interrupted
+     * if a sorting thread fails, its exception is rethrown
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param controller cancellation and deadline of this sort
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, SortController controller) {
     	
     	MergeSortUtil.checkInput(array.length, numberOfThreads);
         long aux[] = new long[array.length];
@@ -140,17 +181,19 @@ public class MergeSortWithBarriersDTM1 extends Thread {
     	
     	MergeSortWithBarriersDTM1 threads[] = new MergeSortWithBarriersDTM1[numberOfThreads];
         for (int i = 0; i < threads.length; i++) {
-            threads[i] = new MergeSortWithBarriersDTM1(i, barrier, array, aux, numberOfThreads);
+            threads[i] = new MergeSortWithBarriersDTM1(i, barrier, array, aux, numberOfThreads, controller);
             threads[i].start();
         }
         
-        // main thread waits for the first thread to finish. 
-        // it could have waited any other thread. all finish simultaneously
-        try {
-        	threads[0].join();
-        }catch(InterruptedException ie) {
-        	ie.printStackTrace();
+        // main thread waits for all threads to finish. 
+        // a failed or cancelled thread may finish before the others
+        controller.joinAll(threads);
+        
+        Throwable failures[] = new Throwable[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            failures[i] = threads[i].failure;
         }
+        SortController.rethrow(failures);
     }
     
     public static void main(String args[]){
@@ -41,11 +41,18 @@ package auyar.pms;
  *     a) after merging two sorted subarrays
  *     b) after copying back to the original array
  * 
+ * Cancellation and failures: 
+ *   threads check the SortController between merge levels. 
+ *   if the sort is cancelled, its deadline passes or a thread fails, 
+ *   the failing thread breaks the barrier so that all threads leave, 
+ *   and the failure is rethrown in the calling thread. 
+ * 
  * @author Ahmet Uyar
  */
 import java.util.Arrays;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
 
 
 public class MergeSortWithBarriersDTM2 extends Thread {
@@ -54,14 +61,43 @@ public class MergeSortWithBarriersDTM2 extends Thread {
     private long array[];
     private long aux[];
     private int numberOfThreads;
+    private SortController controller;
+    // merging stops when this many blocks are left
+    private int finalBlocks = 1;
+    private LeafSorter leafSorter = LeafSorter.JDK;
+    private Throwable failure;
  
     public MergeSortWithBarriersDTM2(int threadID, CyclicBarrier barrier, long array[], long aux[], int numberOfThreads) {
+        this(threadID, barrier, array, aux, numberOfThreads, new SortController());
+    }  
+
+    public MergeSortWithBarriersDTM2(int threadID, CyclicBarrier barrier, long array[], long aux[], int numberOfThreads, 
+            SortController controller) {
         super("thread " + threadID);
         this.threadID = threadID;
         this.barrier = barrier;
         this.array = array;
         this.aux = aux;
         this.numberOfThreads = numberOfThreads;
+        this.controller = controller;
+    }  
+
+    /**
+     * @param finalBlocks merging stops when this many sorted blocks are left, 1 for a fully sorted array
+     */
+    public MergeSortWithBarriersDTM2(int threadID, CyclicBarrier barrier, long array[], long aux[], int numberOfThreads, 
+            SortController controller, int finalBlocks) {
+        this(threadID, barrier, array, aux, numberOfThreads, controller);
+        this.finalBlocks = finalBlocks;
+    }  
+
+    /**
+     * @param leafSorter sorts the sub array of each thread before merging
+     */
+    public MergeSortWithBarriersDTM2(int threadID, CyclicBarrier barrier, long array[], long aux[], int numberOfThreads, 
+            SortController controller, int finalBlocks, LeafSorter leafSorter) {
+        this(threadID, barrier, array, aux, numberOfThreads, controller, finalBlocks);
+        this.leafSorter = leafSorter;
     }  
 
     @Override
@@ -74,8 +110,9 @@ public class MergeSortWithBarriersDTM2 extends Thread {
                 last = array.length;
             
             // each thread sorts its sub array and waits others at the barrier
-            Arrays.sort(array, first, last);
-            barrier.await();
+            leafSorter.sort(array, aux, first, last);
+            controller.checkpoint();
+            controller.await(barrier);
             
             int numberOfBlocks = numberOfThreads;
             
@@ -84,7 +121,7 @@ public class MergeSortWithBarriersDTM2 extends Thread {
             // last one will not be merged, so no thread is necessary for that block
             int activeThreads = (numberOfBlocks%2==0)?numberOfBlocks:numberOfBlocks-1;
             
-            while(numberOfBlocks>1){
+            while(numberOfBlocks>finalBlocks){
                 if(threadID<activeThreads && threadID%2 == 0){
                     int start = threadID*blockSize;
                     int second = start+blockSize;
@@ -93,7 +130,7 @@ public class MergeSortWithBarriersDTM2 extends Thread {
                         third = array.length;
                     
                     int mergedElements = MergeSortUtil.mergeMins(array, aux, start, second, third);
-                    barrier.await();
+                    controller.await(barrier);
                     // copy back the merged block to the original array
                     System.arraycopy(aux, start, array, start, mergedElements);
                 }else if(threadID<activeThreads && threadID%2 != 0){
@@ -103,12 +140,12 @@ public class MergeSortWithBarriersDTM2 extends Thread {
                     if(threadID+1 == numberOfBlocks)
                         third = array.length;
                     int mergedElements = MergeSortUtil.mergeMaxes(array, aux, start, second, third);
-                    barrier.await();
+                    controller.await(barrier);
                     // copy back the merged block to the original array
                     System.arraycopy(aux, third-mergedElements, array, third-mergedElements, mergedElements);
                 }else{
                 	// idle looping threads wait to synchronize 
-                    barrier.await();
+                    controller.await(barrier);
                 }
                 blockSize *= 2;
                 // numberOfBlocks ceiled up, since if there are odd numberOfBlocks,
@@ -117,15 +154,17 @@ public class MergeSortWithBarriersDTM2 extends Thread {
                 // last one stayed the same. So in total we have (3+1=4) blocks.  
                 numberOfBlocks = (int)Math.ceil(numberOfBlocks/2.0);
                 activeThreads = (numberOfBlocks%2==0)?numberOfBlocks:numberOfBlocks-1;
-                barrier.await();
+                // cancellation is checked between merge levels
+                controller.checkpoint();
+                controller.await(barrier);
             }
             
-        } catch (InterruptedException ex) {
-            System.out.println("exception error message: " + ex.getMessage());
-            ex.printStackTrace();
         } catch (BrokenBarrierException ex) {
-            System.out.println("exception error message: " + ex.getMessage());
-            ex.printStackTrace();
+            // another thread has failed or the sort is cancelled, its failure is reported
+            failure = ex;
+        } catch (Throwable ex) {
+            failure = ex;
+            SortController.breakBarrier(barrier);
         }
     }
 
@@ -135,24 +174,100 @@ public class MergeSortWithBarriersDTM2 extends Thread {
      * @param numberOfThreads user specifies the number of threads that will sort
      */
     public static void parallelMergeSort(long array[], int numberOfThreads) {
+        parallelMergeSort(array, numberOfThreads, new SortController());
+    }
+
+    /**
+     * a parallel sort method that gives up when the timeout passes
+     * throws CancellationException if the array could not be sorted in time
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param timeout maximum sorting time
+     * @param unit time unit of the timeout argument
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, long timeout, TimeUnit unit) {
+        parallelMergeSort(array, numberOfThreads, new SortController(timeout, unit));
+    }
+
+    /**
+     * a parallel sort method that can be cancelled through the given controller
+     * throws CancellationException if the sort is cancelled, its deadline passes or the calling thread is interrupted
+     * if a sorting thread fails, its exception is rethrown
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param controller cancellation and deadline of this sort
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, SortController controller) {
+        parallelMergeSort(array, new long[array.length], numberOfThreads, controller);
+    }
+
+    /**
+     * a parallel sort method that uses the given auxiliary array
+     * callers that sort many arrays can allocate one auxiliary array and reuse it
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param aux auxiliary array, its length must be at least the length of the array
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param controller cancellation and deadline of this sort
+     */
+    public static void parallelMergeSort(long array[], long aux[], int numberOfThreads, SortController controller) {
+        parallelMergeSort(array, aux, numberOfThreads, controller, 1, LeafSorter.JDK);
+    }
+
+    /**
+     * a parallel sort method with the given sequential sort for the sub arrays of threads
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param leafSorter sorts the sub array of each thread before merging
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, LeafSorter leafSorter) {
+        parallelMergeSort(array, new long[array.length], numberOfThreads, new SortController(), 1, leafSorter);
+    }
+
+    /**
+     * sort the array into two sorted runs, [0, split) and [split, array.length)
+     * the last merge is left to the caller, for example to stream the merged elements
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param controller cancellation and deadline of this sort
+     * @return split, the start index of the second run. it is array.length if there is only one run
+     */
+    public static int sortToTwoRuns(long array[], int numberOfThreads, SortController controller) {
+        parallelMergeSort(array, new long[array.length], numberOfThreads, controller, 2, LeafSorter.JDK);
+        
+        // blocks are merged in the same way as the sorting threads merge them
+        int blockSize = array.length / numberOfThreads;
+        int numberOfBlocks = numberOfThreads;
+        while(numberOfBlocks > 2) {
+            blockSize *= 2;
+            numberOfBlocks = (int)Math.ceil(numberOfBlocks/2.0);
+        }
+        return (numberOfBlocks == 2) ? blockSize : array.length;
+    }
+
+    private static void parallelMergeSort(long array[], long aux[], int numberOfThreads, SortController controller, 
+            int finalBlocks, LeafSorter leafSorter) {
     	
-        long aux[] = new long[array.length];
+        if(aux.length < array.length)
+            throw new IllegalArgumentException("auxiliary array is shorter than the array: " 
+                    + aux.length + " < " + array.length);
         
     	CyclicBarrier barrier = new CyclicBarrier(numberOfThreads);
     	
     	MergeSortWithBarriersDTM2 threads[] = new MergeSortWithBarriersDTM2[numberOfThreads];
         for (int i = 0; i < threads.length; i++) {
-            threads[i] = new MergeSortWithBarriersDTM2(i, barrier, array, aux, numberOfThreads);
+            threads[i] = new MergeSortWithBarriersDTM2(i, barrier, array, aux, numberOfThreads, controller, finalBlocks, leafSorter);
             threads[i].start();
         }
         
-        // main thread waits for the first thread to finish. 
-        // it could have waited any other thread. all finish simultaneously
-        try {
-        	threads[0].join();
-        }catch(InterruptedException ie) {
-        	ie.printStackTrace();
+        // main thread waits for all threads to finish. 
+        // a failed or cancelled thread may finish before the others
+        controller.joinAll(threads);
+        
+        Throwable failures[] = new Throwable[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            failures[i] = threads[i].failure;
         }
+        SortController.rethrow(failures);
     }
     
     public static void main(String args[]){
@@ -0,0 +1,171 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Parallel iterative merge sort with CyclicBarrier with double thread merging for int arrays
+ * 
+ * It is the int version of MergeSortWithBarriersDTM2. 
+ * The number of threads and the number of elements may be any positive number. 
+ * 
+ * Merge levels read and write the whole array twice: once to the auxiliary array, once back. 
+ * Their speed is limited by the memory bandwidth, so an int array is merged about two times faster than a long array. 
+ * KeyRangeSort sorts long arrays with a narrow range of values by packing them to ints for this engine. 
+ * 
+ * Synchronization of threads, cancellation and failures are the same as in MergeSortWithBarriersDTM2. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+public class MergeSortWithBarriersIntDTM extends Thread {
+    private int threadID;
+    private CyclicBarrier barrier;
+    private int array[];
+    private int aux[];
+    private int numberOfThreads;
+    private SortController controller;
+    private Throwable failure;
+ 
+    public MergeSortWithBarriersIntDTM(int threadID, CyclicBarrier barrier, int array[], int aux[], int numberOfThreads, 
+            SortController controller) {
+        super("thread " + threadID);
+        this.threadID = threadID;
+        this.barrier = barrier;
+        this.array = array;
+        this.aux = aux;
+        this.numberOfThreads = numberOfThreads;
+        this.controller = controller;
+    }  
+
+    @Override
+    public void run() {
+        try {
+            int blockSize = array.length / numberOfThreads;
+            int first = threadID * blockSize;
+            int last = first + blockSize;
+            if(threadID == numberOfThreads-1)
+                last = array.length;
+            
+            // each thread sorts its sub array and waits others at the barrier
+            Arrays.sort(array, first, last);
+            controller.checkpoint();
+            controller.await(barrier);
+            
+            int numberOfBlocks = numberOfThreads;
+            int activeThreads = (numberOfBlocks%2==0)?numberOfBlocks:numberOfBlocks-1;
+            
+            while(numberOfBlocks>1){
+                if(threadID<activeThreads && threadID%2 == 0){
+                    int start = threadID*blockSize;
+                    int second = start+blockSize;
+                    int third = second+blockSize;
+                    if(threadID+2 == numberOfBlocks)
+                        third = array.length;
+                    
+                    int mergedElements = MergeSortUtil.mergeMins(array, aux, start, second, third);
+                    controller.await(barrier);
+                    System.arraycopy(aux, start, array, start, mergedElements);
+                }else if(threadID<activeThreads && threadID%2 != 0){
+                	int start = (threadID-1)*blockSize;
+                    int second = start+blockSize;
+                    int third = second+blockSize;
+                    if(threadID+1 == numberOfBlocks)
+                        third = array.length;
+                    int mergedElements = MergeSortUtil.mergeMaxes(array, aux, start, second, third);
+                    controller.await(barrier);
+                    System.arraycopy(aux, third-mergedElements, array, third-mergedElements, mergedElements);
+                }else{
+                	// idle looping threads wait to synchronize 
+                    controller.await(barrier);
+                }
+                blockSize *= 2;
+                numberOfBlocks = (int)Math.ceil(numberOfBlocks/2.0);
+                activeThreads = (numberOfBlocks%2==0)?numberOfBlocks:numberOfBlocks-1;
+                // cancellation is checked between merge levels
+                controller.checkpoint();
+                controller.await(barrier);
+            }
+            
+        } catch (BrokenBarrierException ex) {
+            // another thread has failed or the sort is cancelled, its failure is reported
+            failure = ex;
+        } catch (Throwable ex) {
+            failure = ex;
+            SortController.breakBarrier(barrier);
+        }
+    }
+
+    /**
+     * a parallel sort method that can be called from any application 
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     */
+    public static void parallelMergeSort(int array[], int numberOfThreads) {
+        parallelMergeSort(array, numberOfThreads, new SortController());
+    }
+
+    /**
+     * a parallel sort method that can be cancelled through the given controller
+     * throws CancellationException if the sort is cancelled, its deadline passes or the calling thread is interrupted
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param controller cancellation and deadline of this sort
+     */
+    public static void parallelMergeSort(int array[], int numberOfThreads, SortController controller) {
+        int aux[] = new int[array.length];
+    	CyclicBarrier barrier = new CyclicBarrier(numberOfThreads);
+    	
+    	MergeSortWithBarriersIntDTM threads[] = new MergeSortWithBarriersIntDTM[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new MergeSortWithBarriersIntDTM(i, barrier, array, aux, numberOfThreads, controller);
+            threads[i].start();
+        }
+        
+        controller.joinAll(threads);
+        
+        Throwable failures[] = new Throwable[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            failures[i] = threads[i].failure;
+        }
+        SortController.rethrow(failures);
+    }
+    
+    public static void main(String args[]){
+        int numberOfThreads = 4;
+        int arraySize = 8000003;
+        int array[] = new int[arraySize];
+        java.util.Random r = new java.util.Random(20);
+        for (int i = 0; i < arraySize; i++) {
+            array[i] = r.nextInt();
+        }
+        int array2[] = array.clone();
+        
+        long startTime = System.currentTimeMillis();
+        Arrays.parallelSort(array2); // system parallel sort
+        long duration = System.currentTimeMillis() - startTime;
+        System.out.println("system sorting time: "+duration);
+
+        startTime = System.currentTimeMillis();
+        parallelMergeSort(array, numberOfThreads);
+        duration = System.currentTimeMillis() - startTime;
+        System.out.println("parallel sorting time: "+duration);
+        System.out.println(Arrays.equals(array, array2) ? "array is sorted." : "array is not sorted.");
+    }
+
+}
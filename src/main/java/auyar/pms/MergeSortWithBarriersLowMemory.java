@@ -0,0 +1,216 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Parallel iterative merge sort with CyclicBarrier and a small auxiliary memory
+ * It is based on MergeSortWithBarriersDTM2.java class. 
+ * Blocks, levels and the number of threads are the same. 
+ * 
+ * MergeSortWithBarriersDTM2 uses an auxiliary array as long as the input array. 
+ * This class uses an auxiliary budget that is given by the user. 
+ * Each thread gets an equal part of the budget as its buffer. 
+ * 
+ * Each merge operation is still handled by two threads: 
+ *   both threads find how many of the smaller half of the elements are in each block (coRank). 
+ *   then they rotate the blocks together, so that the smaller half comes before the larger half: 
+ *     [A1 A2] [B1 B2] becomes [A1 B1] [A2 B2]
+ *   the rotation is done by three reversals: A2 and B1 are reversed, then (A2 B1) is reversed. 
+ *   each thread does half of the swaps of each reversal, so the rotation is parallel as well. 
+ *   then the first thread merges A1 and B1, the second thread merges A2 and B2 in place. 
+ *   in place merges use the thread's buffer, and rotations when the buffer is too small. 
+ * 
+ * With a larger budget, fewer rotations are needed and sorting is faster. 
+ * With a zero budget, no auxiliary array is used for merging. 
+ * The default budget is sqrt(n) elements for each thread. 
+ * 
+ * Synchronization of threads:
+ *   threads wait to synchronize at four points in each iteration
+ *     a) after finding the split, since the array is modified after it
+ *     b) after reversing A2 and B1
+ *     c) after reversing (A2 B1)
+ *     d) after merging 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+public class MergeSortWithBarriersLowMemory extends Thread {
+    private int threadID;
+    private CyclicBarrier barrier;
+    private long array[];
+    private long buffer[];
+    private int numberOfThreads;
+    private SortController controller;
+    private Throwable failure;
+ 
+    /**
+     * @param buffer auxiliary buffer of this thread
+     */
+    public MergeSortWithBarriersLowMemory(int threadID, CyclicBarrier barrier, long array[], long buffer[], 
+            int numberOfThreads, SortController controller) {
+        super("thread " + threadID);
+        this.threadID = threadID;
+        this.barrier = barrier;
+        this.array = array;
+        this.buffer = buffer;
+        this.numberOfThreads = numberOfThreads;
+        this.controller = controller;
+    }  
+
+    @Override
+    public void run() {
+        try {
+            int blockSize = array.length / numberOfThreads;
+            int first = threadID * blockSize;
+            int last = first + blockSize;
+            if(threadID == numberOfThreads-1)
+                last = array.length;
+            
+            // each thread sorts its sub array and waits others at the barrier
+            Arrays.sort(array, first, last);
+            controller.checkpoint();
+            controller.await(barrier);
+            
+            int numberOfBlocks = numberOfThreads;
+            int activeThreads = (numberOfBlocks%2==0)?numberOfBlocks:numberOfBlocks-1;
+            
+            while(numberOfBlocks>1){
+                if(threadID<activeThreads){
+                	// both threads of a pair compute the same split
+                	int block = threadID - threadID%2;
+                    int start = block*blockSize;
+                    int second = start+blockSize;
+                    int third = second+blockSize;
+                    if(block+2 == numberOfBlocks)
+                        third = array.length;
+                    
+                    int half = (third - start)/2;
+                    int part = threadID%2;
+                    
+                    // both threads find the split before the array is modified
+                    int fromFirst = MergeSortUtil.coRank(array, start, second, third, half);
+                    int fromSecond = half - fromFirst;
+                    controller.await(barrier);
+                    
+                    // the smaller half of the second block is moved before the larger half of the first block
+                    // by three reversals, each thread performs half of the swaps of each reversal
+                    MergeSortUtil.reversePart(array, start+fromFirst, second, part, 2);
+                    MergeSortUtil.reversePart(array, second, second+fromSecond, part, 2);
+                    controller.await(barrier);
+                    MergeSortUtil.reversePart(array, start+fromFirst, second+fromSecond, part, 2);
+                    controller.await(barrier);
+                    
+                    if(threadID%2 == 0)
+                    	MergeSortUtil.mergeInPlace(array, start, start+fromFirst, start+half, buffer);
+                    else
+                    	MergeSortUtil.mergeInPlace(array, start+half, second+fromSecond, third, buffer);
+                }else{
+                	// idle looping threads wait to synchronize at the split and the two reversals
+                    controller.await(barrier);
+                    controller.await(barrier);
+                    controller.await(barrier);
+                }
+                blockSize *= 2;
+                numberOfBlocks = (int)Math.ceil(numberOfBlocks/2.0);
+                activeThreads = (numberOfBlocks%2==0)?numberOfBlocks:numberOfBlocks-1;
+                controller.checkpoint();
+                controller.await(barrier);
+            }
+            
+        } catch (BrokenBarrierException ex) {
+            // another thread has failed or the sort is cancelled, its failure is reported
+            failure = ex;
+        } catch (Throwable ex) {
+            failure = ex;
+            SortController.breakBarrier(barrier);
+        }
+    }
+
+    /**
+     * a parallel sort method with the default auxiliary budget, sqrt(n) elements for each thread
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads) {
+    	int budget = (int)Math.min((long)Math.sqrt(array.length) * numberOfThreads, array.length);
+    	parallelMergeSort(array, numberOfThreads, budget);
+    }
+    
+    /**
+     * a parallel sort method that uses at most the given number of auxiliary elements for merging
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param auxBudget total number of auxiliary elements for all threads. it may be zero.
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, int auxBudget) {
+    	parallelMergeSort(array, numberOfThreads, auxBudget, new SortController());
+    }
+    
+    /**
+     * a parallel sort method that can be cancelled through the given controller
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param auxBudget total number of auxiliary elements for all threads. it may be zero.
+     * @param controller cancellation and deadline of this sort
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, int auxBudget, SortController controller) {
+    	if(auxBudget < 0)
+    		throw new IllegalArgumentException("auxiliary budget can not be negative: " + auxBudget);
+    	
+    	CyclicBarrier barrier = new CyclicBarrier(numberOfThreads);
+    	
+    	MergeSortWithBarriersLowMemory threads[] = new MergeSortWithBarriersLowMemory[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+        	long buffer[] = new long[auxBudget / numberOfThreads];
+            threads[i] = new MergeSortWithBarriersLowMemory(i, barrier, array, buffer, numberOfThreads, controller);
+            threads[i].start();
+        }
+        
+        controller.joinAll(threads);
+        
+        Throwable failures[] = new Throwable[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            failures[i] = threads[i].failure;
+        }
+        SortController.rethrow(failures);
+    }
+    
+    public static void main(String args[]){
+        int numberOfThreads = 4;
+        int arraySize = 8000003;
+        long array[] = new long[arraySize];
+        long array2[] = new long[arraySize];
+        
+        MergeSortUtil.arrayInit(array, 20);
+        MergeSortUtil.arrayInit(array2, 20);
+        
+        long startTime = System.currentTimeMillis();
+        MergeSortWithBarriersDTM2.parallelMergeSort(array2, numberOfThreads);
+        long duration = System.currentTimeMillis() - startTime;
+        System.out.println("double merge sorting time: "+duration);
+
+        startTime = System.currentTimeMillis();
+        parallelMergeSort(array, numberOfThreads);
+        duration = System.currentTimeMillis() - startTime;
+        
+        System.out.println("low memory sorting time: "+duration);
+        MergeSortUtil.isSorted(array);
+    }
+
+}
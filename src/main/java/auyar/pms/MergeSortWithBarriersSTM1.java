@@ -45,11 +45,17 @@ package auyar.pms;
  * 	Assumption 2: the number of threads is 2^k where k is an integer. 
  * 		So, always two blocks of equal size is merged.
  * 
+ * Cancellation and failures: 
+ *   threads check the SortController between merge levels. 
+ *   a failing or cancelled thread breaks the barrier, 
+ *   and the failure is rethrown in the calling thread. 
+ * 
  * @author Ahmet Uyar
  */
 import java.util.Arrays;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
 
 public class MergeSortWithBarriersSTM1 extends Thread {
 
@@ -58,14 +64,22 @@ public class MergeSortWithBarriersSTM1 extends Thread {
     private long array[];
     private long aux[];
     private int numberOfThreads;
+    private SortController controller;
+    private Throwable failure;
 
     public MergeSortWithBarriersSTM1(int threadID, CyclicBarrier barrier, long array[], long aux[], int numberOfThreads) {
+        this(threadID, barrier, array, aux, numberOfThreads, new SortController());
+    }
+
+    public MergeSortWithBarriersSTM1(int threadID, CyclicBarrier barrier, long array[], long aux[], int numberOfThreads, 
+            SortController controller) {
         super("thread " + threadID);
         this.threadID = threadID;
         this.barrier = barrier;
         this.array = array;
         this.aux = aux;
         this.numberOfThreads = numberOfThreads;
+        this.controller = controller;
     }
 
     public void run() {
@@ -76,7 +90,8 @@ public class MergeSortWithBarriersSTM1 extends Thread {
 
             // each thread sort its sub array and all waits at the barrier
             Arrays.sort(array, first, last);
-            barrier.await();
+            controller.checkpoint();
+            controller.await(barrier);
             
             int activeThreads = numberOfThreads/2;
             
@@ -89,14 +104,16 @@ public class MergeSortWithBarriersSTM1 extends Thread {
                 }
                 blockSize *= 2;
                 activeThreads = activeThreads/2;
-                barrier.await();
+                // cancellation is checked between merge levels
+                controller.checkpoint();
+                controller.await(barrier);
             }
-        } catch (InterruptedException ex) {
-            System.out.println("exception error message: " + ex.getMessage());
-            ex.printStackTrace();
         } catch (BrokenBarrierException ex) {
-            System.out.println("exception error message: " + ex.getMessage());
-            ex.printStackTrace();
+            // another thread has failed or the sort is cancelled, its failure is reported
+            failure = ex;
+        } catch (Throwable ex) {
+            failure = ex;
+            SortController.breakBarrier(barrier);
         }
     }
         
@@ -106,6 +123,30 @@ public class MergeSortWithBarriersSTM1 extends Thread {
      * @param numberOfThreads user specifies the number of threads that will sort
      */
     public static void parallelMergeSort(long array[], int numberOfThreads) {
+        parallelMergeSort(array, numberOfThreads, new SortController());
+    }
+
+    /**
+     * a parallel sort method that gives up when the timeout passes
+     * throws CancellationException if the array could not be sorted in time
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param timeout maximum sorting time
+     * @param unit time unit of the timeout argument
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, long timeout, TimeUnit unit) {
+        parallelMergeSort(array, numberOfThreads, new SortController(timeout, unit));
+    }
+
+    /**
+     * a parallel sort method that can be cancelled through the given controller
+     * throws CancellationException if the sort is cancelled, its deadline passes or the calling thread is interrupted
+     * if a sorting thread fails, its exception is rethrown
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param controller cancellation and deadline of this sort
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, SortController controller) {
     	
     	MergeSortUtil.checkInput(array.length, numberOfThreads);
         long aux[] = new long[array.length];
@@ -114,17 +155,19 @@ public class MergeSortWithBarriersSTM1 extends Thread {
     	
         MergeSortWithBarriersSTM1 threads[] = new MergeSortWithBarriersSTM1[numberOfThreads];
         for (int i = 0; i < threads.length; i++) {
-            threads[i] = new MergeSortWithBarriersSTM1(i, barrier, array, aux, numberOfThreads);
+            threads[i] = new MergeSortWithBarriersSTM1(i, barrier, array, aux, numberOfThreads, controller);
             threads[i].start();
         }
         
-        // main thread waits for the first thread to finish. 
-        // it could have waited any other thread. all finish simultaneously
-        try {
-        	threads[0].join();
-        }catch(InterruptedException ie) {
-        	ie.printStackTrace();
+        // main thread waits for all threads to finish. 
+        // a failed or cancelled thread may finish before the others
+        controller.joinAll(threads);
+        
+        Throwable failures[] = new Throwable[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            failures[i] = threads[i].failure;
         }
+        SortController.rethrow(failures);
     }
     
     public static void main(String args[]){
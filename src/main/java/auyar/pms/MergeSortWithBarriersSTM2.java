@@ -39,11 +39,17 @@ package auyar.pms;
  *     threadID of third thread 2
  *     etc. 
  *      
+ * Cancellation and failures: 
+ *   threads check the SortController between merge levels. 
+ *   a failing or cancelled thread breaks the barrier, 
+ *   and the failure is rethrown in the calling thread. 
+ *      
  * @author Ahmet Uyar
  */
 import java.util.Arrays;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
  
 public class MergeSortWithBarriersSTM2 extends Thread {
  
@@ -52,14 +58,32 @@ public class MergeSortWithBarriersSTM2 extends Thread {
     private long array[];
     private long aux[];
     private int numberOfThreads;
+    private SortController controller;
+    private LeafSorter leafSorter = LeafSorter.JDK;
+    private Throwable failure;
  
     public MergeSortWithBarriersSTM2(int threadID, CyclicBarrier barrier, long array[], long aux[], int numberOfThreads) {
+        this(threadID, barrier, array, aux, numberOfThreads, new SortController());
+    }
+ 
+    public MergeSortWithBarriersSTM2(int threadID, CyclicBarrier barrier, long array[], long aux[], int numberOfThreads, 
+            SortController controller) {
         super("thread " + threadID);
         this.threadID = threadID;
         this.barrier = barrier;
         this.array = array;
         this.aux = aux;
         this.numberOfThreads = numberOfThreads;
+        this.controller = controller;
+    }
+ 
+    /**
+     * @param leafSorter sorts the sub array of each thread before merging
+     */
+    public MergeSortWithBarriersSTM2(int threadID, CyclicBarrier barrier, long array[], long aux[], int numberOfThreads, 
+            SortController controller, LeafSorter leafSorter) {
+        this(threadID, barrier, array, aux, numberOfThreads, controller);
+        this.leafSorter = leafSorter;
     }
  
     public void run() {
@@ -73,8 +97,9 @@ public class MergeSortWithBarriersSTM2 extends Thread {
                 last = array.length;
             
             // each thread sorts its subarray and wait others at the barrier
-            Arrays.sort(array, first, last);
-            barrier.await();
+            leafSorter.sort(array, aux, first, last);
+            controller.checkpoint();
+            controller.await(barrier);
              
             int numberOfBlocks = numberOfThreads;
             int activeThreads = numberOfBlocks/2;
@@ -100,14 +125,16 @@ public class MergeSortWithBarriersSTM2 extends Thread {
                 // activeThreads must be calculated by dividing numberOfBlocks by 2, 
                 // not dividing activeThreads by 2.
                 activeThreads = numberOfBlocks/2;
-                barrier.await();
+                // cancellation is checked between merge levels
+                controller.checkpoint();
+                controller.await(barrier);
             }
-        } catch (InterruptedException ex) {
-            System.out.println("exception error message: " + ex.getMessage());
-            ex.printStackTrace();
         } catch (BrokenBarrierException ex) {
-            System.out.println("exception error message: " + ex.getMessage());
-            ex.printStackTrace();
+            // another thread has failed or the sort is cancelled, its failure is reported
+            failure = ex;
+        } catch (Throwable ex) {
+            failure = ex;
+            SortController.breakBarrier(barrier);
         }
     }
 
@@ -117,6 +144,44 @@ public class MergeSortWithBarriersSTM2 extends Thread {
      * @param numberOfThreads user specifies the number of threads that will sort
      */
     public static void parallelMergeSort(long array[], int numberOfThreads) {
+        parallelMergeSort(array, numberOfThreads, new SortController());
+    }
+
+    /**
+     * a parallel sort method that gives up when the timeout passes
+     * throws CancellationException if the array could not be sorted in time
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param timeout maximum sorting time
+     * @param unit time unit of the timeout argument
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, long timeout, TimeUnit unit) {
+        parallelMergeSort(array, numberOfThreads, new SortController(timeout, unit));
+    }
+
+    /**
+     * a parallel sort method that can be cancelled through the given controller
+     * throws CancellationException if the sort is cancelled, its deadline passes or the calling thread is interrupted
+     * if a sorting thread fails, its exception is rethrown
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param controller cancellation and deadline of this sort
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, SortController controller) {
+        parallelMergeSort(array, numberOfThreads, controller, LeafSorter.JDK);
+    }
+
+    /**
+     * a parallel sort method with the given sequential sort for the sub arrays of threads
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param leafSorter sorts the sub array of each thread before merging
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, LeafSorter leafSorter) {
+        parallelMergeSort(array, numberOfThreads, new SortController(), leafSorter);
+    }
+
+    private static void parallelMergeSort(long array[], int numberOfThreads, SortController controller, LeafSorter leafSorter) {
     	
         long aux[] = new long[array.length];
         
@@ -124,17 +189,19 @@ public class MergeSortWithBarriersSTM2 extends Thread {
     	
         MergeSortWithBarriersSTM2 threads[] = new MergeSortWithBarriersSTM2[numberOfThreads];
         for (int i = 0; i < threads.length; i++) {
-            threads[i] = new MergeSortWithBarriersSTM2(i, barrier, array, aux, numberOfThreads);
+            threads[i] = new MergeSortWithBarriersSTM2(i, barrier, array, aux, numberOfThreads, controller, leafSorter);
             threads[i].start();
         }
         
-        // main thread waits for the first thread to finish. 
-        // it could have waited any other thread. all finish simultaneously
-        try {
-        	threads[0].join();
-        }catch(InterruptedException ie) {
-        	ie.printStackTrace();
+        // main thread waits for all threads to finish. 
+        // a failed or cancelled thread may finish before the others
+        controller.joinAll(threads);
+        
+        Throwable failures[] = new Throwable[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            failures[i] = threads[i].failure;
         }
+        SortController.rethrow(failures);
     }    
     
     public static void main(String args[]){
@@ -0,0 +1,359 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Parallel iterative merge sort with CyclicBarrier that executes a merge schedule
+ * 
+ * MergeSortWithBarriersDTM2 merges consecutive pairs of blocks with two threads for each pair. 
+ * When the number of blocks is odd, the last block waits and two threads are idle at that level. 
+ * In the last levels, a small block is merged with a large one by only two threads 
+ * and the other threads wait at the barrier. 
+ * 
+ * This engine executes the plan of MergePlanner: 
+ *   each thread sorts its block sequentially, as in DTM2. 
+ *   at each level, the largest waiting run is chosen in a size-aware way, 
+ *   and all threads take part in the merges of the level. 
+ *   a merge is divided into equal parts with coRank, one part for each of its threads. 
+ * So the last merge is done by all threads, not by two. 
+ * 
+ * The same engine merges sorted runs of any number and any sizes, see mergeRuns method. 
+ * 
+ * Chunked leaf phase: 
+ *   when cores have different speeds or some of them are busy with other work, 
+ *   the slowest thread sets the pace at the first barrier, since every thread sorts one block. 
+ *   in chunked mode, the array is divided into many more chunks than threads. 
+ *   threads take the next unsorted chunk from a shared counter until no chunk is left, 
+ *   so a fast thread sorts more chunks than a slow one. 
+ *   the plan merges all chunks as runs. while there are more merges than threads at a level, 
+ *   whole merges are given to threads. 
+ * 
+ * Synchronization of threads:
+ *   threads wait to synchronize at two points in each level
+ *     a) after merging their parts to the auxiliary array
+ *     b) after copying back their parts to the original array
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MergeSortWithBarriersScheduled extends Thread {
+	
+	// chunks are not made shorter than this in chunked mode
+	static final int MIN_CHUNK_SIZE = 1 << 12;
+	
+    private int threadID;
+    private CyclicBarrier barrier;
+    private long array[];
+    private long aux[];
+    // sub arrays of the threads or chunks to be sorted before merging, null if the runs are already sorted
+    private int leafBounds[];
+    private MergePlanner.Plan plan;
+    private SortController controller;
+    private LeafSorter leafSorter = LeafSorter.JDK;
+    // next chunk to be sorted in chunked mode, null if each thread sorts its own sub array
+    private AtomicInteger nextChunk;
+    private Throwable failure;
+ 
+    public MergeSortWithBarriersScheduled(int threadID, CyclicBarrier barrier, long array[], long aux[], int leafBounds[], 
+            MergePlanner.Plan plan, SortController controller) {
+        super("thread " + threadID);
+        this.threadID = threadID;
+        this.barrier = barrier;
+        this.array = array;
+        this.aux = aux;
+        this.leafBounds = leafBounds;
+        this.plan = plan;
+        this.controller = controller;
+    }  
+
+    /**
+     * @param leafSorter sorts the sub array of each thread before merging
+     */
+    public MergeSortWithBarriersScheduled(int threadID, CyclicBarrier barrier, long array[], long aux[], int leafBounds[], 
+            MergePlanner.Plan plan, SortController controller, LeafSorter leafSorter) {
+        this(threadID, barrier, array, aux, leafBounds, plan, controller);
+        this.leafSorter = leafSorter;
+    }  
+
+    /**
+     * @param leafBounds bounds of the chunks to be sorted before merging
+     * @param nextChunk shared by all threads, threads take chunks from it until all chunks are taken
+     */
+    public MergeSortWithBarriersScheduled(int threadID, CyclicBarrier barrier, long array[], long aux[], int leafBounds[], 
+            MergePlanner.Plan plan, SortController controller, LeafSorter leafSorter, AtomicInteger nextChunk) {
+        this(threadID, barrier, array, aux, leafBounds, plan, controller, leafSorter);
+        this.nextChunk = nextChunk;
+    }  
+
+    @Override
+    public void run() {
+        try {
+            if(leafBounds != null) {
+                if(nextChunk == null) {
+                    // each thread sorts its sub array and waits others at the barrier
+                    leafSorter.sort(array, aux, leafBounds[threadID], leafBounds[threadID+1]);
+                } else {
+                    // threads sort chunks until all of them are taken
+                    int numberOfChunks = leafBounds.length - 1;
+                    int chunk;
+                    while((chunk = nextChunk.getAndIncrement()) < numberOfChunks) {
+                        controller.checkpoint();
+                        leafSorter.sort(array, aux, leafBounds[chunk], leafBounds[chunk+1]);
+                    }
+                }
+                controller.checkpoint();
+                controller.await(barrier);
+            }
+            
+            for (int level = 0; level < plan.tasks.length; level++) {
+                int tasks[] = plan.tasks[level][threadID];
+                for (int i = 0; i < tasks.length; i += MergePlanner.TASK_SIZE) {
+                    mergePart(tasks[i], tasks[i+1], tasks[i+2], tasks[i+3], tasks[i+4]);
+                }
+                controller.await(barrier);
+                
+                // copy back the merged parts to the original array
+                for (int i = 0; i < tasks.length; i += MergePlanner.TASK_SIZE) {
+                    int start = tasks[i] + tasks[i+3];
+                    System.arraycopy(aux, start, array, start, tasks[i+4] - tasks[i+3]);
+                }
+                // cancellation is checked between merge levels
+                controller.checkpoint();
+                controller.await(barrier);
+            }
+            
+        } catch (BrokenBarrierException ex) {
+            // another thread has failed or the sort is cancelled, its failure is reported
+            failure = ex;
+        } catch (Throwable ex) {
+            failure = ex;
+            SortController.breakBarrier(barrier);
+        }
+    }
+    
+    /**
+     * merge the elements from k1 to k2 of the merged output of [start1, start2) and [start2, last)
+     * they are written to the same positions in the auxiliary array
+     */
+    private void mergePart(int start1, int start2, int last, int k1, int k2) {
+        int i1 = MergeSortUtil.coRank(array, start1, start2, last, k1);
+        int i2 = MergeSortUtil.coRank(array, start1, start2, last, k2);
+        MergeSortUtil.mergeRanges(array, aux, start1 + i1, start1 + i2, 
+                start2 + k1 - i1, start2 + k2 - i2, start1 + k1);
+    }
+
+    /**
+     * a parallel sort method that can be called from any application 
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads) {
+        parallelMergeSort(array, numberOfThreads, new SortController());
+    }
+
+    /**
+     * a parallel sort method that gives up when the timeout passes
+     * throws CancellationException if the array could not be sorted in time
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param timeout maximum sorting time
+     * @param unit time unit of the timeout argument
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, long timeout, TimeUnit unit) {
+        parallelMergeSort(array, numberOfThreads, new SortController(timeout, unit));
+    }
+
+    /**
+     * a parallel sort method that can be cancelled through the given controller
+     * throws CancellationException if the sort is cancelled, its deadline passes or the calling thread is interrupted
+     * if a sorting thread fails, its exception is rethrown
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param controller cancellation and deadline of this sort
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, SortController controller) {
+        parallelMergeSort(array, numberOfThreads, controller, LeafSorter.JDK);
+    }
+
+    /**
+     * a parallel sort method with the given sequential sort for the sub arrays of threads
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param leafSorter sorts the sub array of each thread before merging
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, LeafSorter leafSorter) {
+        parallelMergeSort(array, numberOfThreads, new SortController(), leafSorter);
+    }
+
+    private static void parallelMergeSort(long array[], int numberOfThreads, SortController controller, LeafSorter leafSorter) {
+        // blocks are the same as the blocks of DTM2, the last one has the remaining elements
+        int blockSize = array.length / numberOfThreads;
+        int leafBounds[] = new int[numberOfThreads + 1];
+        for (int i = 0; i < numberOfThreads; i++) {
+            leafBounds[i] = i * blockSize;
+        }
+        leafBounds[numberOfThreads] = array.length;
+        
+        run(array, leafBounds, leafBounds, numberOfThreads, controller, leafSorter, null);
+    }
+
+    /**
+     * a parallel sort method with a chunked leaf phase, for cores with different or changing speeds
+     * threads take chunks one by one, so faster threads sort more of them
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param chunksPerThread number of chunks for each thread, 8 is a good start. 
+     *        chunks have at least MIN_CHUNK_SIZE elements, so small arrays get fewer chunks
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, int chunksPerThread) {
+        parallelMergeSort(array, numberOfThreads, chunksPerThread, new SortController());
+    }
+
+    /**
+     * a parallel sort method with a chunked leaf phase that can be cancelled through the given controller
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param chunksPerThread number of chunks for each thread
+     * @param controller cancellation and deadline of this sort
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, int chunksPerThread, SortController controller) {
+        parallelMergeSort(array, numberOfThreads, chunksPerThread, controller, LeafSorter.JDK);
+    }
+
+    /**
+     * a parallel sort method with a chunked leaf phase and the given sequential sort for the chunks
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param chunksPerThread number of chunks for each thread
+     * @param leafSorter sorts each chunk before merging
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, int chunksPerThread, LeafSorter leafSorter) {
+        parallelMergeSort(array, numberOfThreads, chunksPerThread, new SortController(), leafSorter);
+    }
+
+    /**
+     * a parallel sort method with a chunked leaf phase and the given sequential sort for the chunks, 
+     * that can be cancelled through the given controller
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param chunksPerThread number of chunks for each thread
+     * @param controller cancellation and deadline of this sort
+     * @param leafSorter sorts each chunk before merging
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, int chunksPerThread, SortController controller, 
+            LeafSorter leafSorter) {
+        if(chunksPerThread <= 0)
+            throw new IllegalArgumentException("chunksPerThread must be positive: " + chunksPerThread);
+        
+        long wanted = (long)numberOfThreads * chunksPerThread;
+        int numberOfChunks = (int)Math.max(1, Math.min(wanted, array.length / MIN_CHUNK_SIZE));
+        int chunkBounds[] = new int[numberOfChunks + 1];
+        for (int i = 0; i <= numberOfChunks; i++) {
+            chunkBounds[i] = (int)((long)array.length * i / numberOfChunks);
+        }
+        
+        run(array, chunkBounds, chunkBounds, numberOfThreads, controller, leafSorter, new AtomicInteger());
+    }
+
+    /**
+     * merge the sorted runs of an array with the given number of threads
+     * runs may have any sizes, their number does not depend on the number of threads
+     * @param array run i is [bounds[i], bounds[i+1]) and it is sorted
+     * @param bounds bounds of the runs, the first one is 0 and the last one is array.length
+     * @param numberOfThreads user specifies the number of threads that will merge
+     */
+    public static void mergeRuns(long array[], int bounds[], int numberOfThreads) {
+        mergeRuns(array, bounds, numberOfThreads, new SortController());
+    }
+
+    /**
+     * merge the sorted runs of an array, the merge can be cancelled through the given controller
+     * @param array run i is [bounds[i], bounds[i+1]) and it is sorted
+     * @param bounds bounds of the runs, the first one is 0 and the last one is array.length
+     * @param numberOfThreads user specifies the number of threads that will merge
+     * @param controller cancellation and deadline of this merge
+     */
+    public static void mergeRuns(long array[], int bounds[], int numberOfThreads, SortController controller) {
+        if(bounds.length < 2 || bounds[0] != 0 || bounds[bounds.length-1] != array.length)
+            throw new IllegalArgumentException("run bounds must start with 0 and end with the array length");
+        for (int i = 1; i < bounds.length; i++) {
+            if(bounds[i] < bounds[i-1])
+                throw new IllegalArgumentException("run bounds must be in increasing order: " 
+                        + bounds[i-1] + " > " + bounds[i]);
+        }
+        run(array, null, bounds, numberOfThreads, controller, LeafSorter.JDK, null);
+    }
+
+    private static void run(long array[], int leafBounds[], int runBounds[], int numberOfThreads, SortController controller, 
+            LeafSorter leafSorter, AtomicInteger nextChunk) {
+        
+        MergePlanner.Plan plan = MergePlanner.plan(runBounds, numberOfThreads);
+        long aux[] = new long[array.length];
+    	CyclicBarrier barrier = new CyclicBarrier(numberOfThreads);
+    	
+    	MergeSortWithBarriersScheduled threads[] = new MergeSortWithBarriersScheduled[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new MergeSortWithBarriersScheduled(i, barrier, array, aux, leafBounds, plan, controller, leafSorter, nextChunk);
+            threads[i].start();
+        }
+        
+        // main thread waits for all threads to finish. 
+        // a failed or cancelled thread may finish before the others
+        controller.joinAll(threads);
+        
+        Throwable failures[] = new Throwable[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            failures[i] = threads[i].failure;
+        }
+        SortController.rethrow(failures);
+    }
+    
+    public static void main(String args[]){
+        int numberOfThreads = 7;
+        int arraySize = 8000003;
+        long array[] = new long[arraySize];
+        long array2[] = new long[arraySize];
+        
+        MergeSortUtil.arrayInit(array, 20);
+        MergeSortUtil.arrayInit(array2, 20);
+        
+        long startTime = System.currentTimeMillis();
+        MergeSortWithBarriersDTM2.parallelMergeSort(array2, numberOfThreads);
+        long duration = System.currentTimeMillis() - startTime;
+        System.out.println("DTM2 sorting time: "+duration);
+
+        startTime = System.currentTimeMillis();
+        parallelMergeSort(array, numberOfThreads);
+        duration = System.currentTimeMillis() - startTime;
+        System.out.println("scheduled sorting time: "+duration);
+        
+        MergeSortUtil.isSorted(array);
+        System.out.println(Arrays.equals(array, array2) ? "same result as DTM2." : "results are different.");
+        
+        MergeSortUtil.arrayInit(array, 20);
+        startTime = System.currentTimeMillis();
+        parallelMergeSort(array, numberOfThreads, 8);
+        duration = System.currentTimeMillis() - startTime;
+        System.out.println("scheduled sorting time with chunks: "+duration);
+        System.out.println(Arrays.equals(array, array2) ? "same result as DTM2." : "results are different.");
+    }
+
+}
@@ -0,0 +1,233 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Recursive merge sort with Fork-Join Threads and parallel merging
+ * 
+ * In MergeSortWithForkJoinSTM2.java class, each merge is performed by one thread. 
+ * The merge at the root of the tree merges the whole array while all other threads are idle. 
+ * 
+ * In this class, merge operations are divided into parts and parts are merged by forked tasks. 
+ * The recursion tree and the sub arrays of leaf threads are the same as MergeSortWithForkJoinSTM2: 
+ *   a complete binary tree with numberOfLeafThreads leaves. 
+ * A merge at a node is divided into as many parts as the leaves under that node. 
+ * So the root merge is divided into numberOfLeafThreads parts, 
+ * the merges of the nodes with two leaves are divided into two parts like mergeMins and mergeMaxes. 
+ * 
+ * Dividing a merge: 
+ *   if the merged block will have n elements and it is divided into p parts, 
+ *   the part k gets the merged elements from (k*n/p) to ((k+1)*n/p). 
+ *   MergeSortUtil.coRank finds how many of them come from the first sub array. 
+ *   each part merges its elements to the auxiliary array independently. 
+ *   when all parts are merged, they are copied back to the original array by the same parts. 
+ * 
+ * Parts are not divided further when they are shorter than MIN_PART_SIZE. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+public class MergeSortWithForkJoinDTM extends RecursiveAction {
+	
+	// merges are not divided into parts shorter than this
+	static final int MIN_PART_SIZE = 1 << 13;
+ 
+    private int threadID;
+    private int start; 
+    private int length;
+    private int leaves;
+    private long array[];
+    private long aux[];
+    private int numberOfLeafThreads;
+    private SortController controller;
+    private LeafSorter leafSorter = LeafSorter.JDK;
+ 
+    public MergeSortWithForkJoinDTM(int id, long array[], long aux[], int threads, SortController controller) {
+        this.threadID = id;
+        this.array = array;
+        this.aux = aux;
+        this.numberOfLeafThreads = threads;
+        this.controller = controller;
+    }
+ 
+    /**
+     * @param leafSorter sorts the sub arrays of leaf threads
+     */
+    public MergeSortWithForkJoinDTM(int id, long array[], long aux[], int threads, SortController controller, 
+            LeafSorter leafSorter) {
+        this(id, array, aux, threads, controller);
+        this.leafSorter = leafSorter;
+    }
+    
+    /**
+     * a part of a merge operation, or a range of parts
+     * parts [firstPart, lastPart) are divided into two tasks until there is one part
+     */
+    private static class MergePart extends RecursiveAction {
+    	private long array[];
+    	private long aux[];
+    	private int start1;
+    	private int start2;
+    	private int last;
+    	private int parts;
+    	private int firstPart;
+    	private int lastPart;
+    	private boolean copyBack;
+    	
+    	MergePart(long array[], long aux[], int start1, int start2, int last, 
+    			int parts, int firstPart, int lastPart, boolean copyBack) {
+    		this.array = array;
+    		this.aux = aux;
+    		this.start1 = start1;
+    		this.start2 = start2;
+    		this.last = last;
+    		this.parts = parts;
+    		this.firstPart = firstPart;
+    		this.lastPart = lastPart;
+    		this.copyBack = copyBack;
+    	}
+    	
+    	@Override
+    	protected void compute() {
+    		if(lastPart - firstPart > 1) {
+    			int middlePart = (firstPart + lastPart) >>> 1;
+    			invokeAll(new MergePart(array, aux, start1, start2, last, parts, firstPart, middlePart, copyBack), 
+    					new MergePart(array, aux, start1, start2, last, parts, middlePart, lastPart, copyBack));
+    			return;
+    		}
+    		
+    		// merged elements [k1, k2) of this part
+    		long total = last - start1;
+    		int k1 = (int)(total * firstPart / parts);
+    		int k2 = (int)(total * lastPart / parts);
+    		if(copyBack) {
+    			System.arraycopy(aux, start1+k1, array, start1+k1, k2-k1);
+    			return;
+    		}
+    		int i1 = MergeSortUtil.coRank(array, start1, start2, last, k1);
+    		int i2 = MergeSortUtil.coRank(array, start1, start2, last, k2);
+    		MergeSortUtil.mergeRanges(array, aux, start1+i1, start1+i2, start2+k1-i1, start2+k2-i2, start1+k1);
+    	}
+    }
+    
+    @Override
+    protected void compute() {
+        if (threadID >= numberOfLeafThreads) {
+        	start = MergeSortWithForkJoinSTM2.leafStart(threadID, array.length, numberOfLeafThreads);
+        	length = MergeSortWithForkJoinSTM2.leafLength(threadID, array.length, numberOfLeafThreads);
+        	leaves = 1;
+            leafSorter.sort(array, aux, start, start+length);
+            return;
+        }
+ 
+        MergeSortWithForkJoinDTM th1 = new MergeSortWithForkJoinDTM(2*threadID, array, aux, numberOfLeafThreads, controller, leafSorter);
+        MergeSortWithForkJoinDTM th2 = new MergeSortWithForkJoinDTM(2*threadID+1, array, aux, numberOfLeafThreads, controller, leafSorter);
+        invokeAll(th1, th2);
+        // cancellation is checked before each merge
+        controller.checkpoint();
+        start = th1.start;
+        length = th1.length + th2.length;
+        leaves = th1.leaves + th2.leaves;
+        
+        int parts = Math.max(1, Math.min(leaves, length / MIN_PART_SIZE));
+        int last = start + length;
+        new MergePart(array, aux, start, th2.start, last, parts, 0, parts, false).invoke();
+        new MergePart(array, aux, start, th2.start, last, parts, 0, parts, true).invoke();
+    }
+    
+    /**
+     * a parallel sort method that can be called from any application 
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads) {
+        parallelMergeSort(array, numberOfThreads, new SortController());
+    }
+    
+    /**
+     * a parallel sort method that gives up when the timeout passes
+     * throws CancellationException if the array could not be sorted in time
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param timeout maximum sorting time
+     * @param unit time unit of the timeout argument
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, long timeout, TimeUnit unit) {
+        parallelMergeSort(array, numberOfThreads, new SortController(timeout, unit));
+    }
+    
+    /**
+     * a parallel sort method that can be cancelled through the given controller
+     * throws CancellationException if the sort is cancelled or its deadline passes
+     * exceptions of the sorting tasks are rethrown by the pool
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param controller cancellation and deadline of this sort
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, SortController controller) {
+        parallelMergeSort(array, numberOfThreads, controller, LeafSorter.JDK);
+    }
+    
+    /**
+     * a parallel sort method with the given sequential sort for the sub arrays of leaf threads
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param leafSorter sorts the sub arrays of leaf threads
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, LeafSorter leafSorter) {
+        parallelMergeSort(array, numberOfThreads, new SortController(), leafSorter);
+    }
+    
+    private static void parallelMergeSort(long array[], int numberOfThreads, SortController controller, LeafSorter leafSorter) {
+    	
+        long aux[] = new long[array.length];
+        
+        MergeSortWithForkJoinDTM fb = new MergeSortWithForkJoinDTM(1, array, aux, numberOfThreads, controller, leafSorter);
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(fb);
+        } finally {
+            // pool threads are released right away, not after the idle timeout
+            pool.shutdownNow();
+        }
+    }
+    
+    public static void main(String[] args) {
+    	
+        int numberOfLeafThreads = 6;
+        int arraySize = 8000003;
+        long array[] = new long[arraySize];
+        long array2[] = new long[arraySize];
+    	
+    	MergeSortUtil.arrayInit(array, 20);
+    	MergeSortUtil.arrayInit(array2, 20);
+    	
+        long startTime = System.currentTimeMillis();
+        MergeSortWithForkJoinSTM2.parallelMergeSort(array2, numberOfLeafThreads);
+        long duration = System.currentTimeMillis() - startTime;
+        System.out.println("single thread merging took " + duration + " milliseconds.");
+         
+        startTime = System.currentTimeMillis();
+        parallelMergeSort(array, numberOfLeafThreads);
+        duration = System.currentTimeMillis() - startTime;
+        System.out.println("parallel merging took " + duration + " milliseconds.");
+         
+        MergeSortUtil.isSorted(array);
+    }
+}
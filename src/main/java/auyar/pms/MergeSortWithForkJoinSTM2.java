@@ -2,6 +2,7 @@ package auyar.pms;
 
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 import java.util.Arrays;
 import java.util.ArrayList;
  
@@ -55,12 +56,38 @@ public class MergeSortWithForkJoinSTM2 extends RecursiveAction {
     private long array[];
     private long aux[];
     private int numberOfLeafThreads;
+    private SortController controller;
+    // bounds of the leaf sub arrays in array order, null if all leaves get the same number of elements
+    private int bounds[];
+    private LeafSorter leafSorter = LeafSorter.JDK;
  
     public MergeSortWithForkJoinSTM2(int id, long array[], long aux[], int threads) {
+        this(id, array, aux, threads, new SortController());
+    }
+ 
+    public MergeSortWithForkJoinSTM2(int id, long array[], long aux[], int threads, SortController controller) {
         this.threadID = id;
         this.array = array;
         this.aux = aux;
         this.numberOfLeafThreads = threads;
+        this.controller = controller;
+    }
+ 
+    /**
+     * @param bounds bounds of the leaf sub arrays, computed by LeafPartitioner.bounds
+     */
+    public MergeSortWithForkJoinSTM2(int id, long array[], long aux[], int threads, SortController controller, int bounds[]) {
+        this(id, array, aux, threads, controller);
+        this.bounds = bounds;
+    }
+ 
+    /**
+     * @param leafSorter sorts the sub arrays of leaf threads
+     */
+    public MergeSortWithForkJoinSTM2(int id, long array[], long aux[], int threads, SortController controller, int bounds[], 
+            LeafSorter leafSorter) {
+        this(id, array, aux, threads, controller, bounds);
+        this.leafSorter = leafSorter;
     }
  
     /**
@@ -69,7 +96,28 @@ public class MergeSortWithForkJoinSTM2 extends RecursiveAction {
      */
     
     protected void sortSequentially() {
-    	int blockSize = array.length/numberOfLeafThreads; // the size of the sub array that will be sorted sequentially
+    	if(bounds != null) {
+    		int position = LeafPartitioner.leafPosition(threadID, numberOfLeafThreads);
+    		start = bounds[position];
+    		length = bounds[position+1] - start;
+    	} else {
+    		start = leafStart(threadID, array.length, numberOfLeafThreads);
+    		length = leafLength(threadID, array.length, numberOfLeafThreads);
+    	}
+    	
+//    	String log = "Thread id: "+ threadID + "   start index: "+start+" \tlength: "+length;
+//    	logs.set(threadID, log);
+    	
+        leafSorter.sort(array, aux, start, start+length);
+    }
+    
+    /**
+     * the start index of the sub array of a leaf thread in the complete binary tree
+     * @param threadID id of the leaf thread, at least numberOfLeafThreads
+     * @param arrayLength number of elements to be sorted
+     */
+    static int leafStart(int threadID, int arrayLength, int numberOfLeafThreads) {
+    	int blockSize = arrayLength/numberOfLeafThreads; // the size of the sub array that will be sorted sequentially
     	int firstLeafNode = numberOfLeafThreads; 
     	int lastNodeID = numberOfLeafThreads*2-1; // last node of the thread tree
     	int treeHeight = (int)(Math.log(lastNodeID)/Math.log(2));
@@ -78,24 +126,23 @@ public class MergeSortWithForkJoinSTM2 extends RecursiveAction {
 
     	// if the thread is in the last level
     	if(threadID >= firstNodeOfLastLevel)
-    		start = (threadID-firstNodeOfLastLevel)*blockSize;
+    		return (threadID-firstNodeOfLastLevel)*blockSize;
     	
     	// if the thread is in the previous level
     	else
-    		start = (nodesInLastLevel + (threadID-firstLeafNode))*blockSize;
-    	
-    	length = blockSize;
-
+    		return (nodesInLastLevel + (threadID-firstLeafNode))*blockSize;
+    }
+    
+    /**
+     * the length of the sub array of a leaf thread in the complete binary tree
+     */
+    static int leafLength(int threadID, int arrayLength, int numberOfLeafThreads) {
     	// if this is the thread that will sort the last sub array
     	// it is the last node in the last level or the previous level
     	// if we add 1 to the threadID, we get a number that is a power of 2
     	if( MergeSortUtil.checkPowerOfTwo(threadID+1) )
-    		length = array.length - start;
-    	
-//    	String log = "Thread id: "+ threadID + "   start index: "+start+" \tlength: "+length;
-//    	logs.set(threadID, log);
-    	
-        Arrays.sort(array, start, start+length);
+    		return arrayLength - leafStart(threadID, arrayLength, numberOfLeafThreads);
+    	return arrayLength/numberOfLeafThreads;
     }
  
     @Override
@@ -105,9 +152,11 @@ public class MergeSortWithForkJoinSTM2 extends RecursiveAction {
             return;
         }
  
-        MergeSortWithForkJoinSTM2 th1 = new MergeSortWithForkJoinSTM2(2*threadID, array, aux, numberOfLeafThreads);
-        MergeSortWithForkJoinSTM2 th2 = new MergeSortWithForkJoinSTM2(2*threadID+1, array, aux, numberOfLeafThreads);
+        MergeSortWithForkJoinSTM2 th1 = new MergeSortWithForkJoinSTM2(2*threadID, array, aux, numberOfLeafThreads, controller, bounds, leafSorter);
+        MergeSortWithForkJoinSTM2 th2 = new MergeSortWithForkJoinSTM2(2*threadID+1, array, aux, numberOfLeafThreads, controller, bounds, leafSorter);
         invokeAll(th1, th2);
+        // cancellation is checked before each merge
+        controller.checkpoint();
         MergeSortUtil.merge(array, aux, th1.start, th2.start, th2.start+th2.length);
         start = th1.start;
         length = th1.length + th2.length;
@@ -122,12 +171,68 @@ public class MergeSortWithForkJoinSTM2 extends RecursiveAction {
      * @param numberOfThreads user specifies the number of threads that will sort
      */
     public static void parallelMergeSort(long array[], int numberOfThreads) {
+        parallelMergeSort(array, numberOfThreads, new SortController());
+    }
+    
+    /**
+     * a parallel sort method that gives up when the timeout passes
+     * throws CancellationException if the array could not be sorted in time
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param timeout maximum sorting time
+     * @param unit time unit of the timeout argument
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, long timeout, TimeUnit unit) {
+        parallelMergeSort(array, numberOfThreads, new SortController(timeout, unit));
+    }
+    
+    /**
+     * a parallel sort method that can be cancelled through the given controller
+     * throws CancellationException if the sort is cancelled or its deadline passes
+     * exceptions of the sorting tasks are rethrown by the pool
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param controller cancellation and deadline of this sort
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, SortController controller) {
+        parallelMergeSort(array, numberOfThreads, controller, null, LeafSorter.JDK);
+    }
+    
+    /**
+     * a parallel sort method that sizes the leaf sub arrays with the given partitioner
+     * leaves in the level before the last one get more elements, since they take part in one less merge
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param partitioner cost model of the leaf sizes
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, LeafPartitioner partitioner) {
+        parallelMergeSort(array, numberOfThreads, new SortController(), partitioner.bounds(array.length, numberOfThreads), 
+                LeafSorter.JDK);
+    }
+    
+    /**
+     * a parallel sort method with the given sequential sort for the sub arrays of leaf threads
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param leafSorter sorts the sub arrays of leaf threads
+     */
+    public static void parallelMergeSort(long array[], int numberOfThreads, LeafSorter leafSorter) {
+        parallelMergeSort(array, numberOfThreads, new SortController(), null, leafSorter);
+    }
+    
+    private static void parallelMergeSort(long array[], int numberOfThreads, SortController controller, int bounds[], 
+            LeafSorter leafSorter) {
     	
         long aux[] = new long[array.length];
         
-        MergeSortWithForkJoinSTM2 fb = new MergeSortWithForkJoinSTM2(1, array, aux, numberOfThreads);
+        MergeSortWithForkJoinSTM2 fb = new MergeSortWithForkJoinSTM2(1, array, aux, numberOfThreads, controller, bounds, leafSorter);
         ForkJoinPool pool = new ForkJoinPool();
-        pool.invoke(fb);
+        try {
+            pool.invoke(fb);
+        } finally {
+            // pool threads are released right away, not after the idle timeout
+            pool.shutdownNow();
+        }
     }
     
     public static void main(String[] args) {
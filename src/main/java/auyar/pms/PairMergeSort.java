@@ -0,0 +1,392 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Parallel merge sort of 128 bit keys stored as pairs of longs
+ * 
+ * UUIDs and (timestamp, sequence) keys are two longs. Sorting them as objects with a comparator 
+ * allocates an object for each key and follows a pointer for each comparison. 
+ * This class sorts them without objects: 
+ *   interleaved arrays: pair i is (pairs[2i], pairs[2i+1]), the high long first. 
+ *   split arrays: pair i is (hi[i], lo[i]). they are interleaved into a working array and split back. 
+ * 
+ * Order: 
+ *   SIGNED: two's complement 128 bit order. the high long is signed, the low long is unsigned. 
+ *     (timestamp, sequence) keys with non-negative sequences have this order. 
+ *   UNSIGNED: unsigned 128 bit order, for example for UUIDs. 
+ * The merge methods of pairs compare both longs as signed values. 
+ * So the sign bits are flipped before sorting where the order is unsigned, and flipped back after sorting. 
+ * Threads flip their own ranges, so flipping does not add a sequential pass. 
+ * 
+ * There are two drivers: 
+ *   barrier driver: the same as MergeSortWithBarriersDTM2, with the pair versions of mergeMins and mergeMaxes. 
+ *   ForkJoin driver: the same as MergeSortWithForkJoinSTM2, with the pair version of merge. 
+ * Leaf sub arrays are sorted by MergeSortSeq.mergeSortPairs. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class PairMergeSort extends Thread {
+	
+	public enum Order {
+		SIGNED(0L), 
+		UNSIGNED(Long.MIN_VALUE);
+		
+		// xor mask of the high long, the low long is always compared as unsigned
+		private final long highFlip;
+		
+		Order(long highFlip) {
+			this.highFlip = highFlip;
+		}
+	}
+	
+	// ranges longer than this are flipped by two tasks in the ForkJoin driver
+	static final int TRANSFORM_GRAIN = 1 << 16;
+	
+    private int threadID;
+    private CyclicBarrier barrier;
+    private long pairs[];
+    private long aux[];
+    // split arrays, null if the input is interleaved
+    private long hi[];
+    private long lo[];
+    private long highFlip;
+    private int numberOfThreads;
+    private SortController controller;
+    private Throwable failure;
+    
+    public PairMergeSort(int threadID, CyclicBarrier barrier, long pairs[], long aux[], long hi[], long lo[], Order order, 
+            int numberOfThreads, SortController controller) {
+        super("thread " + threadID);
+        this.threadID = threadID;
+        this.barrier = barrier;
+        this.pairs = pairs;
+        this.aux = aux;
+        this.hi = hi;
+        this.lo = lo;
+        this.highFlip = order.highFlip;
+        this.numberOfThreads = numberOfThreads;
+        this.controller = controller;
+    }
+    
+    @Override
+    public void run() {
+        try {
+            int length = pairs.length / 2;
+            int blockSize = length / numberOfThreads;
+            int first = threadID * blockSize;
+            int last = first + blockSize;
+            if(threadID == numberOfThreads-1)
+                last = length;
+            
+            // each thread prepares and sorts its sub array and waits others at the barrier
+            transform(pairs, hi, lo, highFlip, first, last, true);
+            MergeSortSeq.mergeSortPairs(pairs, aux, first, last);
+            controller.checkpoint();
+            controller.await(barrier);
+            
+            int numberOfBlocks = numberOfThreads;
+            int activeThreads = (numberOfBlocks%2==0)?numberOfBlocks:numberOfBlocks-1;
+            
+            while(numberOfBlocks>1){
+                if(threadID<activeThreads && threadID%2 == 0){
+                    int start = threadID*blockSize;
+                    int second = start+blockSize;
+                    int third = second+blockSize;
+                    if(threadID+2 == numberOfBlocks)
+                        third = length;
+                    
+                    int mergedElements = MergeSortUtil.mergePairMins(pairs, aux, start, second, third);
+                    controller.await(barrier);
+                    System.arraycopy(aux, 2*start, pairs, 2*start, 2*mergedElements);
+                }else if(threadID<activeThreads && threadID%2 != 0){
+                	int start = (threadID-1)*blockSize;
+                    int second = start+blockSize;
+                    int third = second+blockSize;
+                    if(threadID+1 == numberOfBlocks)
+                        third = length;
+                    int mergedElements = MergeSortUtil.mergePairMaxes(pairs, aux, start, second, third);
+                    controller.await(barrier);
+                    System.arraycopy(aux, 2*(third-mergedElements), pairs, 2*(third-mergedElements), 2*mergedElements);
+                }else{
+                	// idle looping threads wait to synchronize 
+                    controller.await(barrier);
+                }
+                blockSize *= 2;
+                numberOfBlocks = (int)Math.ceil(numberOfBlocks/2.0);
+                activeThreads = (numberOfBlocks%2==0)?numberOfBlocks:numberOfBlocks-1;
+                // cancellation is checked between merge levels
+                controller.checkpoint();
+                controller.await(barrier);
+            }
+            
+            // all copies are finished at the last barrier, each thread restores the keys of its range
+            int restoreSize = length / numberOfThreads;
+            first = threadID * restoreSize;
+            last = (threadID == numberOfThreads-1) ? length : first + restoreSize;
+            transform(pairs, hi, lo, highFlip, first, last, false);
+            
+        } catch (BrokenBarrierException ex) {
+            // another thread has failed or the sort is cancelled, its failure is reported
+            failure = ex;
+        } catch (Throwable ex) {
+            failure = ex;
+            SortController.breakBarrier(barrier);
+        }
+    }
+    
+    /**
+     * flip the sign bits of the pairs [first, last) for the order, 
+     * and copy them from the split arrays before sorting or to the split arrays after sorting
+     * @param hi null if the pairs are interleaved
+     * @param in true before sorting, false after sorting
+     */
+    static void transform(long pairs[], long hi[], long lo[], long highFlip, int first, int last, boolean in) {
+        if(hi == null) {
+            for (int i = first; i < last; i++) {
+                pairs[2*i] ^= highFlip;
+                pairs[2*i+1] ^= Long.MIN_VALUE;
+            }
+        } else if(in) {
+            for (int i = first; i < last; i++) {
+                pairs[2*i] = hi[i] ^ highFlip;
+                pairs[2*i+1] = lo[i] ^ Long.MIN_VALUE;
+            }
+        } else {
+            for (int i = first; i < last; i++) {
+                hi[i] = pairs[2*i] ^ highFlip;
+                lo[i] = pairs[2*i+1] ^ Long.MIN_VALUE;
+            }
+        }
+    }
+    
+    /**
+     * sort an interleaved array of pairs with the barrier driver
+     * @param pairs pair i is (pairs[2i], pairs[2i+1]), the high long first
+     * @param order signed or unsigned 128 bit order
+     * @param numberOfThreads user specifies the number of threads that will sort
+     */
+    public static void parallelMergeSort(long pairs[], Order order, int numberOfThreads) {
+        parallelMergeSort(pairs, order, numberOfThreads, new SortController());
+    }
+    
+    /**
+     * sort an interleaved array of pairs with the barrier driver, the sort can be cancelled through the given controller
+     * @param pairs pair i is (pairs[2i], pairs[2i+1]), the high long first
+     * @param order signed or unsigned 128 bit order
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param controller cancellation and deadline of this sort
+     */
+    public static void parallelMergeSort(long pairs[], Order order, int numberOfThreads, SortController controller) {
+        checkPairs(pairs);
+        run(pairs, null, null, order, numberOfThreads, controller);
+    }
+    
+    /**
+     * sort split arrays of pairs with the barrier driver, both arrays are reordered
+     * @param hi high longs of the keys
+     * @param lo low longs of the keys
+     * @param order signed or unsigned 128 bit order
+     * @param numberOfThreads user specifies the number of threads that will sort
+     */
+    public static void parallelMergeSort(long hi[], long lo[], Order order, int numberOfThreads) {
+        checkSplit(hi, lo);
+        run(new long[2*hi.length], hi, lo, order, numberOfThreads, new SortController());
+    }
+    
+    private static void run(long pairs[], long hi[], long lo[], Order order, int numberOfThreads, SortController controller) {
+        long aux[] = new long[pairs.length];
+    	CyclicBarrier barrier = new CyclicBarrier(numberOfThreads);
+    	
+    	PairMergeSort threads[] = new PairMergeSort[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new PairMergeSort(i, barrier, pairs, aux, hi, lo, order, numberOfThreads, controller);
+            threads[i].start();
+        }
+        
+        controller.joinAll(threads);
+        
+        Throwable failures[] = new Throwable[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            failures[i] = threads[i].failure;
+        }
+        SortController.rethrow(failures);
+    }
+    
+    /**
+     * sorts the pairs [first, last): leaves sort sequentially, other tasks merge the results of two tasks
+     */
+    private static class SortTask extends RecursiveAction {
+        private long pairs[];
+        private long aux[];
+        private int first;
+        private int last;
+        private int leaves;
+        private SortController controller;
+        
+        SortTask(long pairs[], long aux[], int first, int last, int leaves, SortController controller) {
+            this.pairs = pairs;
+            this.aux = aux;
+            this.first = first;
+            this.last = last;
+            this.leaves = leaves;
+            this.controller = controller;
+        }
+        
+        @Override
+        protected void compute() {
+            if(leaves <= 1) {
+                MergeSortSeq.mergeSortPairs(pairs, aux, first, last);
+                return;
+            }
+            int leftLeaves = leaves / 2;
+            int middle = first + (int)((long)(last - first) * leftLeaves / leaves);
+            invokeAll(new SortTask(pairs, aux, first, middle, leftLeaves, controller), 
+                    new SortTask(pairs, aux, middle, last, leaves - leftLeaves, controller));
+            // cancellation is checked before each merge
+            controller.checkpoint();
+            MergeSortUtil.mergePairs(pairs, aux, first, middle, last);
+        }
+    }
+    
+    /**
+     * runs the transform method on the pairs [first, last) with parallel tasks
+     */
+    private static class TransformTask extends RecursiveAction {
+        private long pairs[];
+        private long hi[];
+        private long lo[];
+        private long highFlip;
+        private int first;
+        private int last;
+        private boolean in;
+        
+        TransformTask(long pairs[], long hi[], long lo[], long highFlip, int first, int last, boolean in) {
+            this.pairs = pairs;
+            this.hi = hi;
+            this.lo = lo;
+            this.highFlip = highFlip;
+            this.first = first;
+            this.last = last;
+            this.in = in;
+        }
+        
+        @Override
+        protected void compute() {
+            if(last - first <= TRANSFORM_GRAIN) {
+                transform(pairs, hi, lo, highFlip, first, last, in);
+                return;
+            }
+            int middle = (first + last) >>> 1;
+            invokeAll(new TransformTask(pairs, hi, lo, highFlip, first, middle, in), 
+                    new TransformTask(pairs, hi, lo, highFlip, middle, last, in));
+        }
+    }
+    
+    /**
+     * sort an interleaved array of pairs with the ForkJoin driver
+     * @param pairs pair i is (pairs[2i], pairs[2i+1]), the high long first
+     * @param order signed or unsigned 128 bit order
+     * @param numberOfThreads user specifies the number of leaf tasks
+     */
+    public static void forkJoinSort(long pairs[], Order order, int numberOfThreads) {
+        checkPairs(pairs);
+        forkJoinSort(pairs, null, null, order, numberOfThreads, new SortController());
+    }
+    
+    /**
+     * sort split arrays of pairs with the ForkJoin driver, both arrays are reordered
+     * @param hi high longs of the keys
+     * @param lo low longs of the keys
+     * @param order signed or unsigned 128 bit order
+     * @param numberOfThreads user specifies the number of leaf tasks
+     */
+    public static void forkJoinSort(long hi[], long lo[], Order order, int numberOfThreads) {
+        checkSplit(hi, lo);
+        forkJoinSort(new long[2*hi.length], hi, lo, order, numberOfThreads, new SortController());
+    }
+    
+    private static void forkJoinSort(long pairs[], long hi[], long lo[], Order order, int numberOfThreads, 
+            SortController controller) {
+        int length = pairs.length / 2;
+        long aux[] = new long[pairs.length];
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new TransformTask(pairs, hi, lo, order.highFlip, 0, length, true));
+            pool.invoke(new SortTask(pairs, aux, 0, length, numberOfThreads, controller));
+            pool.invoke(new TransformTask(pairs, hi, lo, order.highFlip, 0, length, false));
+        } finally {
+            // pool threads are released right away, not after the idle timeout
+            pool.shutdownNow();
+        }
+    }
+    
+    private static void checkPairs(long pairs[]) {
+        if(pairs.length % 2 != 0)
+            throw new IllegalArgumentException("interleaved array must have an even length: " + pairs.length);
+    }
+    
+    private static void checkSplit(long hi[], long lo[]) {
+        if(hi.length != lo.length)
+            throw new IllegalArgumentException("hi and lo arrays must have the same length: " + hi.length + " != " + lo.length);
+    }
+    
+    public static void main(String args[]) {
+        int numberOfThreads = 4;
+        int numberOfKeys = 2000003;
+        java.util.Random r = new java.util.Random(20);
+        long pairs[] = new long[2*numberOfKeys];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = r.nextLong();
+        }
+        long pairs2[] = pairs.clone();
+        
+        // keys as objects with a comparator, as UUIDs are sorted in unsigned order
+        java.util.UUID uuids[] = new java.util.UUID[numberOfKeys];
+        for (int i = 0; i < numberOfKeys; i++) {
+            uuids[i] = new java.util.UUID(pairs[2*i], pairs[2*i+1]);
+        }
+        long startTime = System.currentTimeMillis();
+        Arrays.parallelSort(uuids, (u1, u2) -> {
+            int c = Long.compareUnsigned(u1.getMostSignificantBits(), u2.getMostSignificantBits());
+            return (c != 0) ? c : Long.compareUnsigned(u1.getLeastSignificantBits(), u2.getLeastSignificantBits());
+        });
+        long duration = System.currentTimeMillis() - startTime;
+        System.out.println("object sorting time: "+duration);
+        
+        startTime = System.currentTimeMillis();
+        parallelMergeSort(pairs, Order.UNSIGNED, numberOfThreads);
+        duration = System.currentTimeMillis() - startTime;
+        System.out.println("barrier sorting time: "+duration);
+        
+        startTime = System.currentTimeMillis();
+        forkJoinSort(pairs2, Order.UNSIGNED, numberOfThreads);
+        duration = System.currentTimeMillis() - startTime;
+        System.out.println("ForkJoin sorting time: "+duration);
+        
+        boolean same = Arrays.equals(pairs, pairs2);
+        for (int i = 0; i < numberOfKeys && same; i++) {
+            same = pairs[2*i] == uuids[i].getMostSignificantBits() && pairs[2*i+1] == uuids[i].getLeastSignificantBits();
+        }
+        System.out.println(same ? "same order as the objects." : "orders are different.");
+    }
+}
@@ -0,0 +1,336 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Parallel selection of the kth smallest element, the median and quantiles without sorting the array
+ * 
+ * The array is not modified. The algorithm: 
+ *   a random sample of the array is sorted. 
+ *   for each requested rank k, two pivots are taken from the sample around the position of k in the sample. 
+ *   pivots divide the values into buckets: 
+ *     the values between two neighbour pivots, and the values equal to a pivot. 
+ *   each thread counts the elements of each bucket in its range of the array. 
+ *   the counts tell which bucket has the kth element. 
+ *     if it is a bucket of a pivot, the pivot is the answer. 
+ *     otherwise, threads copy the elements of the buckets that have requested ranks to small arrays, 
+ *     and those arrays are sorted. 
+ * 
+ * With a sample of 2^16 elements, the bucket around a rank has about n/64 elements. 
+ * So the array is read twice and only a small part of it is sorted. 
+ * If the sample is unlucky, the bucket is larger. The result is still correct, only slower. 
+ * 
+ * Quantiles use the nearest rank definition: the q quantile is the element with rank ceil(q*n)-1. 
+ * 
+ * Each thread counts and copies one range of the array, as in SortVerifier. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.Arrays;
+import java.util.Random;
+
+public class ParallelSelect extends Thread {
+	
+	// arrays shorter than this are copied and sorted
+	static final int MIN_PARALLEL_LENGTH = 1 << 16;
+	static final int SAMPLE_SIZE = 1 << 16;
+	
+    private long array[];
+    private int first;
+    private int last;
+    private long pivots[];
+    // number of elements in each bucket in the range of this thread
+    private int counts[];
+    // in the copy pass: arrays of the buckets to be copied, null for other buckets
+    private long buckets[][];
+    // in the copy pass: the index of the first element of this thread in each bucket array
+    private int offsets[];
+    private SortController controller;
+    private Throwable failure;
+    
+    public ParallelSelect(int threadID, long array[], int first, int last, long pivots[], SortController controller) {
+        super("thread " + threadID);
+        this.array = array;
+        this.first = first;
+        this.last = last;
+        this.pivots = pivots;
+        this.controller = controller;
+    }
+    
+    /**
+     * a thread of the copy pass
+     */
+    public ParallelSelect(int threadID, long array[], int first, int last, long pivots[], SortController controller, 
+            long buckets[][], int offsets[]) {
+        this(threadID, array, first, last, pivots, controller);
+        this.buckets = buckets;
+        this.offsets = offsets;
+    }
+    
+    /**
+     * bucket 2i has the values between pivots[i-1] and pivots[i], 
+     * bucket 2i+1 has the values equal to pivots[i]. 
+     * pivots are distinct and in increasing order. 
+     */
+    static int bucket(long pivots[], long value) {
+        int i = MergeSortUtil.lowerBound(pivots, 0, pivots.length, value);
+        return (i < pivots.length && pivots[i] == value) ? 2*i+1 : 2*i;
+    }
+    
+    @Override
+    public void run() {
+        try {
+            controller.checkpoint();
+            if(buckets == null) {
+                counts = new int[2*pivots.length + 1];
+                for (int i = first; i < last; i++) {
+                    counts[bucket(pivots, array[i])]++;
+                }
+            } else {
+                for (int i = first; i < last; i++) {
+                    int b = bucket(pivots, array[i]);
+                    if(buckets[b] != null)
+                        buckets[b][offsets[b]++] = array[i];
+                }
+            }
+        } catch (Throwable ex) {
+            failure = ex;
+        }
+    }
+    
+    /**
+     * the kth smallest element of the array, using all available processors
+     * @param array it is not modified
+     * @param k rank of the element, 0 for the smallest one
+     */
+    public static long parallelSelect(long array[], int k) {
+        return parallelSelect(array, k, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * the kth smallest element of the array
+     * @param array it is not modified
+     * @param k rank of the element, 0 for the smallest one
+     * @param numberOfThreads user specifies the number of threads
+     */
+    public static long parallelSelect(long array[], int k, int numberOfThreads) {
+        return select(array, new int[]{k}, numberOfThreads, new SortController())[0];
+    }
+    
+    /**
+     * the median of the array, the element with rank (n-1)/2
+     * @param array it is not modified
+     */
+    public static long median(long array[]) {
+        return parallelSelect(array, (array.length - 1) / 2);
+    }
+    
+    /**
+     * quantiles of the array, using all available processors
+     * @param array it is not modified
+     * @param qs quantiles between 0 and 1, for example 0.5, 0.9, 0.99
+     * @return the element with rank ceil(q*n)-1 for each q, in the order of qs
+     */
+    public static long[] quantiles(long array[], double... qs) {
+        return quantiles(array, qs, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * quantiles of the array
+     * @param array it is not modified
+     * @param qs quantiles between 0 and 1, for example 0.5, 0.9, 0.99
+     * @param numberOfThreads user specifies the number of threads
+     * @return the element with rank ceil(q*n)-1 for each q, in the order of qs
+     */
+    public static long[] quantiles(long array[], double qs[], int numberOfThreads) {
+        int ranks[] = new int[qs.length];
+        for (int i = 0; i < qs.length; i++) {
+            if(!(qs[i] >= 0 && qs[i] <= 1))
+                throw new IllegalArgumentException("quantile must be between 0 and 1: " + qs[i]);
+            ranks[i] = (int)Math.max(0, Math.ceil(qs[i] * array.length) - 1);
+        }
+        return select(array, ranks, numberOfThreads, new SortController());
+    }
+    
+    /**
+     * the elements with the given ranks, all of them are found with one sample and two passes over the array
+     * throws CancellationException if the selection is cancelled or its deadline passes
+     * @param array it is not modified
+     * @param ranks ranks of the elements, 0 for the smallest one. they may be in any order.
+     * @param numberOfThreads user specifies the number of threads
+     * @param controller cancellation and deadline of this selection
+     * @return the element with each rank, in the order of ranks
+     */
+    public static long[] select(long array[], int ranks[], int numberOfThreads, SortController controller) {
+        int n = array.length;
+        for (int i = 0; i < ranks.length; i++) {
+            if(ranks[i] < 0 || ranks[i] >= n)
+                throw new IllegalArgumentException("rank " + ranks[i] + " is out of range for " + n + " elements");
+        }
+        long results[] = new long[ranks.length];
+        if(ranks.length == 0)
+            return results;
+        
+        if(n < MIN_PARALLEL_LENGTH || numberOfThreads <= 1) {
+            long sorted[] = array.clone();
+            Arrays.sort(sorted);
+            for (int i = 0; i < ranks.length; i++) {
+                results[i] = sorted[ranks[i]];
+            }
+            return results;
+        }
+        
+        long pivots[] = pivots(array, ranks);
+        
+        // first pass: bucket counts of all threads
+        ParallelSelect threads[] = start(array, pivots, numberOfThreads, controller, null, null);
+        int numberOfBuckets = 2*pivots.length + 1;
+        long bucketStarts[] = new long[numberOfBuckets + 1];
+        for (int b = 0; b < numberOfBuckets; b++) {
+            bucketStarts[b+1] = bucketStarts[b];
+            for (int t = 0; t < numberOfThreads; t++) {
+                bucketStarts[b+1] += threads[t].counts[b];
+            }
+        }
+        
+        // buckets that have a requested rank. a pivot bucket has only equal values, so it is not copied
+        int rankBuckets[] = new int[ranks.length];
+        long buckets[][] = new long[numberOfBuckets][];
+        boolean copy = false;
+        for (int i = 0; i < ranks.length; i++) {
+            int b = 0;
+            while(bucketStarts[b+1] <= ranks[i])
+                b++;
+            rankBuckets[i] = b;
+            if(b % 2 == 1) {
+                results[i] = pivots[b/2];
+            } else if(buckets[b] == null) {
+                buckets[b] = new long[(int)(bucketStarts[b+1] - bucketStarts[b])];
+                copy = true;
+            }
+        }
+        if(!copy)
+            return results;
+        
+        // second pass: each thread copies its elements to the buckets, after the elements of the previous threads
+        int offsets[][] = new int[numberOfThreads][numberOfBuckets];
+        for (int b = 0; b < numberOfBuckets; b++) {
+            int offset = 0;
+            for (int t = 0; t < numberOfThreads; t++) {
+                offsets[t][b] = offset;
+                offset += threads[t].counts[b];
+            }
+        }
+        start(array, pivots, numberOfThreads, controller, buckets, offsets);
+        
+        for (int b = 0; b < numberOfBuckets; b++) {
+            if(buckets[b] == null)
+                continue;
+            controller.checkpoint();
+            if(buckets[b].length >= MIN_PARALLEL_LENGTH)
+                MergeSortWithBarriersDTM2.parallelMergeSort(buckets[b], numberOfThreads, controller);
+            else
+                Arrays.sort(buckets[b]);
+        }
+        for (int i = 0; i < ranks.length; i++) {
+            int b = rankBuckets[i];
+            if(b % 2 == 0)
+                results[i] = buckets[b][(int)(ranks[i] - bucketStarts[b])];
+        }
+        return results;
+    }
+    
+    /**
+     * two pivots around each rank, from a sorted random sample of the array
+     * the sample is taken with a fixed seed, so the same array gives the same pivots
+     */
+    private static long[] pivots(long array[], int ranks[]) {
+        int n = array.length;
+        int sampleSize = Math.min(n, SAMPLE_SIZE);
+        long sample[] = new long[sampleSize];
+        Random random = new Random(n);
+        for (int i = 0; i < sampleSize; i++) {
+            sample[i] = array[random.nextInt(n)];
+        }
+        Arrays.sort(sample);
+        
+        // the rank of an element in the sample is about k*sampleSize/n, with a deviation of about sqrt(sampleSize)
+        int margin = 2 * (int)Math.sqrt(sampleSize) + 1;
+        long pivots[] = new long[2*ranks.length];
+        for (int i = 0; i < ranks.length; i++) {
+            int position = (int)((long)ranks[i] * sampleSize / n);
+            pivots[2*i] = sample[Math.max(0, position - margin)];
+            pivots[2*i+1] = sample[Math.min(sampleSize-1, position + margin)];
+        }
+        
+        // distinct pivots in increasing order
+        Arrays.sort(pivots);
+        int distinct = 1;
+        for (int i = 1; i < pivots.length; i++) {
+            if(pivots[i] != pivots[distinct-1])
+                pivots[distinct++] = pivots[i];
+        }
+        return Arrays.copyOf(pivots, distinct);
+    }
+    
+    private static ParallelSelect[] start(long array[], long pivots[], int numberOfThreads, SortController controller, 
+            long buckets[][], int offsets[][]) {
+        int blockSize = array.length / numberOfThreads;
+        ParallelSelect threads[] = new ParallelSelect[numberOfThreads];
+        for (int i = 0; i < numberOfThreads; i++) {
+            int first = i * blockSize;
+            int last = (i == numberOfThreads-1) ? array.length : first + blockSize;
+            if(buckets == null)
+                threads[i] = new ParallelSelect(i, array, first, last, pivots, controller);
+            else
+                threads[i] = new ParallelSelect(i, array, first, last, pivots, controller, buckets, offsets[i]);
+            threads[i].start();
+        }
+        
+        controller.joinAll(threads);
+        
+        Throwable failures[] = new Throwable[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            failures[i] = threads[i].failure;
+        }
+        SortController.rethrow(failures);
+        return threads;
+    }
+    
+    public static void main(String args[]) {
+        int numberOfThreads = 4;
+        int arraySize = 20000003;
+        long array[] = new long[arraySize];
+        MergeSortUtil.arrayInit(array, 20);
+        double qs[] = {0.5, 0.9, 0.99, 0.999};
+        
+        long startTime = System.currentTimeMillis();
+        long values[] = quantiles(array, qs, numberOfThreads);
+        long duration = System.currentTimeMillis() - startTime;
+        System.out.println("selection time: "+duration);
+        
+        startTime = System.currentTimeMillis();
+        long sorted[] = array.clone();
+        MergeSortWithBarriersDTM2.parallelMergeSort(sorted, numberOfThreads);
+        duration = System.currentTimeMillis() - startTime;
+        System.out.println("sorting time: "+duration);
+        
+        for (int i = 0; i < qs.length; i++) {
+            long expected = sorted[(int)Math.ceil(qs[i] * arraySize) - 1];
+            System.out.println("quantile " + qs[i] + ": " + values[i] + (values[i] == expected ? "" : ", expected: " + expected));
+        }
+    }
+}
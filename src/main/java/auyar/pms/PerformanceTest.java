@@ -27,6 +27,18 @@ public class PerformanceTest {
 	
 	public static void main(String[] args) {
 		
+		// "distributions" argument compares the engines on all input distributions
+		if(args.length > 0 && args[0].equals("distributions")) {
+			runDistributionTests(arraySizes[0]);
+			return;
+		}
+		
+		// "leaves" argument compares the leaf sorters of the barrier and ForkJoin double merge sorts on all input distributions
+		if(args.length > 0 && args[0].equals("leaves")) {
+			runLeafSorterTests(arraySizes[0]);
+			return;
+		}
+		
 		for (int i = 0; i < arraySizes.length; i++) {
 			runOneTestSet(arraySizes[i], i);
 		}
@@ -51,9 +63,9 @@ public class PerformanceTest {
 		
 		for (int i = 0; i < iterations; i++) {
 			// initialize arrays
-			MergeSortUtil.arrayInit(arraySeq, arraySize+10+i);
-			MergeSortUtil.arrayInit(arrayPar, arraySize+20+i);
-			MergeSortUtil.arrayInit(arrayDM, arraySize+20+i);
+			WorkloadGenerator.fill(arraySeq, WorkloadGenerator.Distribution.UNIFORM, arraySize+10+i, cores);
+			WorkloadGenerator.fill(arrayPar, WorkloadGenerator.Distribution.UNIFORM, arraySize+20+i, cores);
+			WorkloadGenerator.fill(arrayDM, WorkloadGenerator.Distribution.UNIFORM, arraySize+20+i, cores);
 			
 			startTime = System.currentTimeMillis();
 	        Arrays.sort(arraySeq); // system sequential sort
@@ -83,4 +95,74 @@ public class PerformanceTest {
 		avgDurationsPar[setNo] = sumPar/iterations*1.0;
 		avgDurationsDM[setNo] = sumDM/iterations*1.0;
 	}
+	
+	/**
+	 * run all sorting methods on all input distributions with the given array size
+	 * average running times are printed for each distribution
+	 */
+	public static void runDistributionTests(int arraySize) {
+		long array[] = new long[arraySize];
+		
+		System.out.println("Distribution 	Seq Sort 	Parallel Sort 	Double Merge Sort 	Fork Join Sort");
+		
+		for (WorkloadGenerator.Distribution distribution : WorkloadGenerator.Distribution.values()) {
+			long sums[] = new long[4];
+			for (int i = 0; i < iterations; i++) {
+				for (int method = 0; method < sums.length; method++) {
+					// every method sorts the same input
+					WorkloadGenerator.fill(array, distribution, arraySize+i, cores);
+					
+					long startTime = System.currentTimeMillis();
+					if(method == 0)
+						Arrays.sort(array); // system sequential sort
+					else if(method == 1)
+						Arrays.parallelSort(array); // system parallel sort
+					else if(method == 2)
+						MergeSortWithBarriersDTM2.parallelMergeSort(array, cores); // parallel sort with double merging
+					else
+						MergeSortWithForkJoinSTM2.parallelMergeSort(array, cores); // recursive parallel sort
+					sums[method] += System.currentTimeMillis() - startTime;
+				}
+			}
+			
+			System.out.println(distribution + "\t" + sums[0]*1.0/iterations + "\t\t" + sums[1]*1.0/iterations 
+					+ "\t\t" + sums[2]*1.0/iterations + "\t\t\t" + sums[3]*1.0/iterations);
+		}
+	}
+	
+	/**
+	 * run the barrier and ForkJoin engines with each leaf sorter on all input distributions with the given array size
+	 * average running times are printed for each engine and distribution
+	 */
+	public static void runLeafSorterTests(int arraySize) {
+		long array[] = new long[arraySize];
+		LeafSorter leafSorters[] = {LeafSorter.JDK, LeafSorter.RADIX, LeafSorter.MERGE};
+		
+		String engines[] = {"Barrier DTM2", "ForkJoin DTM"};
+		
+		for (int engine = 0; engine < engines.length; engine++) {
+			System.out.println(engines[engine]);
+			System.out.println("Distribution 	JDK Leaves 	Radix Leaves 	Merge Leaves");
+			
+			for (WorkloadGenerator.Distribution distribution : WorkloadGenerator.Distribution.values()) {
+				long sums[] = new long[leafSorters.length];
+				for (int i = 0; i < iterations; i++) {
+					for (int method = 0; method < sums.length; method++) {
+						// every leaf sorter sorts the same input
+						WorkloadGenerator.fill(array, distribution, arraySize+i, cores);
+						
+						long startTime = System.currentTimeMillis();
+						if(engine == 0)
+							MergeSortWithBarriersDTM2.parallelMergeSort(array, cores, leafSorters[method]);
+						else
+							MergeSortWithForkJoinDTM.parallelMergeSort(array, cores, leafSorters[method]);
+						sums[method] += System.currentTimeMillis() - startTime;
+					}
+				}
+				
+				System.out.println(distribution + "\t" + sums[0]*1.0/iterations + "\t\t" + sums[1]*1.0/iterations 
+						+ "\t\t" + sums[2]*1.0/iterations);
+			}
+		}
+	}
 }
@@ -0,0 +1,277 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Sorting into key ranges for parallel consumers
+ * 
+ * The next stage after a sort often divides the sorted array into P contiguous key ranges, one for each worker. 
+ * This class gives the boundaries of P balanced ranges with the array. 
+ * A boundary never falls between two equal keys, so all elements with the same key go to the same worker. 
+ * Partition p is [boundaries[p], boundaries[p+1]). 
+ * 
+ * Both methods use the same convention, so they give the same boundaries for the same input: 
+ *   splitter p is the element with rank (p+1)*n/P - 1 (rank 0 when it is negative). 
+ *   partition p has the elements larger than splitter p-1 and not larger than splitter p. 
+ *   so a key that straddles a boundary goes to the earlier partition. 
+ * 
+ * sortPartitioned method sorts the array and finds the boundaries. 
+ *   the boundary of partition p+1 is the end of the key of splitter p, the element at index (p+1)*n/P - 1. 
+ *   it is found with a binary search, so the boundaries cost only P binary searches after the sort. 
+ * 
+ * rangePartition method does not sort. It only moves the elements into their ranges: 
+ *   splitters are found by ParallelSelect. 
+ *   each thread counts the elements of each partition in its range of the array. 
+ *   the barrier action computes where each thread writes its elements of each partition. 
+ *   threads copy their elements to the auxiliary array, then copy their ranges back. 
+ * Elements in a partition are not sorted. All of them are larger than the elements of the previous partition. 
+ * When the workers aggregate or sort their partitions themselves, the global sort is not needed. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+public class RangePartitionedSort extends Thread {
+	
+	/**
+	 * shared state of the partitioning threads
+	 */
+	private static class Partitioning implements Runnable {
+		private long array[];
+		private long aux[];
+		private long splitters[];
+		// counts[t][p]: number of elements of partition p in the range of thread t, 
+		// after the barrier action: the index in aux where thread t writes its first element of partition p
+		private int counts[][];
+		private int boundaries[];
+		// the barrier action runs at both barriers, positions are computed only at the first one
+		private boolean positionsReady;
+		
+		Partitioning(long array[], long splitters[], int numberOfThreads) {
+			this.array = array;
+			this.aux = new long[array.length];
+			this.splitters = splitters;
+			this.counts = new int[numberOfThreads][splitters.length + 1];
+			this.boundaries = new int[splitters.length + 2];
+		}
+		
+		/**
+		 * barrier action: counts become write positions, partition boundaries are set
+		 */
+		@Override
+		public void run() {
+			if(positionsReady)
+				return;
+			positionsReady = true;
+			int position = 0;
+			for (int p = 0; p <= splitters.length; p++) {
+				boundaries[p] = position;
+				for (int t = 0; t < counts.length; t++) {
+					int count = counts[t][p];
+					counts[t][p] = position;
+					position += count;
+				}
+			}
+			boundaries[splitters.length + 1] = position;
+		}
+	}
+	
+    private CyclicBarrier barrier;
+    private Partitioning partitioning;
+    private int threadID;
+    private int first;
+    private int last;
+    private SortController controller;
+    private Throwable failure;
+    
+    public RangePartitionedSort(int threadID, CyclicBarrier barrier, Partitioning partitioning, int first, int last, 
+            SortController controller) {
+        super("thread " + threadID);
+        this.threadID = threadID;
+        this.barrier = barrier;
+        this.partitioning = partitioning;
+        this.first = first;
+        this.last = last;
+        this.controller = controller;
+    }
+    
+    @Override
+    public void run() {
+        try {
+            long array[] = partitioning.array;
+            long splitters[] = partitioning.splitters;
+            int counts[] = partitioning.counts[threadID];
+            for (int i = first; i < last; i++) {
+                counts[MergeSortUtil.lowerBound(splitters, 0, splitters.length, array[i])]++;
+            }
+            controller.checkpoint();
+            controller.await(barrier);
+            
+            // counts are write positions now
+            long aux[] = partitioning.aux;
+            for (int i = first; i < last; i++) {
+                aux[counts[MergeSortUtil.lowerBound(splitters, 0, splitters.length, array[i])]++] = array[i];
+            }
+            controller.checkpoint();
+            controller.await(barrier);
+            
+            System.arraycopy(aux, first, array, first, last - first);
+        } catch (BrokenBarrierException ex) {
+            // another thread has failed or the partitioning is cancelled, its failure is reported
+            failure = ex;
+        } catch (Throwable ex) {
+            failure = ex;
+            SortController.breakBarrier(barrier);
+        }
+    }
+    
+    /**
+     * sort the array and divide it into balanced key ranges
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfPartitions number of key ranges P
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @return P+1 boundaries, partition p is [boundaries[p], boundaries[p+1])
+     */
+    public static int[] sortPartitioned(long array[], int numberOfPartitions, int numberOfThreads) {
+        return sortPartitioned(array, numberOfPartitions, numberOfThreads, new SortController());
+    }
+    
+    /**
+     * sort the array and divide it into balanced key ranges, the sort can be cancelled through the given controller
+     * @param array the array to be sorted. we assume the array is full. 
+     * @param numberOfPartitions number of key ranges P
+     * @param numberOfThreads user specifies the number of threads that will sort
+     * @param controller cancellation and deadline of this sort
+     * @return P+1 boundaries, partition p is [boundaries[p], boundaries[p+1])
+     */
+    public static int[] sortPartitioned(long array[], int numberOfPartitions, int numberOfThreads, SortController controller) {
+        checkPartitions(numberOfPartitions);
+        MergeSortWithBarriersDTM2.parallelMergeSort(array, numberOfThreads, controller);
+        return keyBoundaries(array, numberOfPartitions);
+    }
+    
+    /**
+     * balanced boundaries of a sorted array that do not divide equal keys
+     * partition p ends after the last element equal to the element at index (p+1)*n/P - 1
+     * a partition is empty if all elements around its start have the key of the previous partition
+     * @param array sorted array
+     * @param numberOfPartitions number of key ranges P
+     * @return P+1 boundaries, partition p is [boundaries[p], boundaries[p+1])
+     */
+    public static int[] keyBoundaries(long array[], int numberOfPartitions) {
+        checkPartitions(numberOfPartitions);
+        int n = array.length;
+        int boundaries[] = new int[numberOfPartitions + 1];
+        for (int p = 1; p < numberOfPartitions && n > 0; p++) {
+            // the same rank as splitter p-1 of rangePartition
+            int index = Math.max(0, (int)((long)n * p / numberOfPartitions) - 1);
+            boundaries[p] = MergeSortUtil.upperBound(array, boundaries[p-1], n, array[index]);
+        }
+        boundaries[numberOfPartitions] = n;
+        return boundaries;
+    }
+    
+    /**
+     * move the elements of the array into balanced key ranges without sorting them
+     * @param array the array to be partitioned. we assume the array is full. 
+     * @param numberOfPartitions number of key ranges P
+     * @param numberOfThreads user specifies the number of threads
+     * @return P+1 boundaries, partition p is [boundaries[p], boundaries[p+1])
+     */
+    public static int[] rangePartition(long array[], int numberOfPartitions, int numberOfThreads) {
+        return rangePartition(array, numberOfPartitions, numberOfThreads, new SortController());
+    }
+    
+    /**
+     * move the elements of the array into balanced key ranges without sorting them
+     * throws CancellationException if the partitioning is cancelled or its deadline passes
+     * @param array the array to be partitioned. we assume the array is full. 
+     * @param numberOfPartitions number of key ranges P
+     * @param numberOfThreads user specifies the number of threads
+     * @param controller cancellation and deadline of this partitioning
+     * @return P+1 boundaries, partition p is [boundaries[p], boundaries[p+1])
+     */
+    public static int[] rangePartition(long array[], int numberOfPartitions, int numberOfThreads, SortController controller) {
+        checkPartitions(numberOfPartitions);
+        int n = array.length;
+        if(n == 0 || numberOfPartitions == 1) {
+            int boundaries[] = new int[numberOfPartitions + 1];
+            Arrays.fill(boundaries, 1, boundaries.length, n);
+            return boundaries;
+        }
+        
+        int ranks[] = new int[numberOfPartitions - 1];
+        for (int p = 0; p < ranks.length; p++) {
+            ranks[p] = Math.max(0, (int)((long)n * (p+1) / numberOfPartitions) - 1);
+        }
+        long splitters[] = ParallelSelect.select(array, ranks, numberOfThreads, controller);
+        
+        Partitioning partitioning = new Partitioning(array, splitters, numberOfThreads);
+        CyclicBarrier barrier = new CyclicBarrier(numberOfThreads, partitioning);
+        int blockSize = n / numberOfThreads;
+        RangePartitionedSort threads[] = new RangePartitionedSort[numberOfThreads];
+        for (int i = 0; i < numberOfThreads; i++) {
+            int first = i * blockSize;
+            int last = (i == numberOfThreads-1) ? n : first + blockSize;
+            threads[i] = new RangePartitionedSort(i, barrier, partitioning, first, last, controller);
+            threads[i].start();
+        }
+        
+        controller.joinAll(threads);
+        Throwable failures[] = new Throwable[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            failures[i] = threads[i].failure;
+        }
+        SortController.rethrow(failures);
+        return partitioning.boundaries;
+    }
+    
+    private static void checkPartitions(int numberOfPartitions) {
+        if(numberOfPartitions <= 0)
+            throw new IllegalArgumentException("number of partitions must be positive: " + numberOfPartitions);
+    }
+    
+    public static void main(String args[]) {
+        int numberOfThreads = 4;
+        int numberOfPartitions = 8;
+        int arraySize = 8000003;
+        long array[] = new long[arraySize];
+        long array2[] = new long[arraySize];
+        MergeSortUtil.arrayInit(array, 20);
+        MergeSortUtil.arrayInit(array2, 20);
+        
+        long startTime = System.currentTimeMillis();
+        int sorted[] = sortPartitioned(array, numberOfPartitions, numberOfThreads);
+        long duration = System.currentTimeMillis() - startTime;
+        System.out.println("sorting time: "+duration);
+        System.out.println("boundaries: " + Arrays.toString(sorted));
+        
+        startTime = System.currentTimeMillis();
+        int partitioned[] = rangePartition(array2, numberOfPartitions, numberOfThreads);
+        duration = System.currentTimeMillis() - startTime;
+        System.out.println("partitioning time: "+duration);
+        System.out.println("boundaries: " + Arrays.toString(partitioned));
+        System.out.println(Arrays.equals(sorted, partitioned) ? "boundaries are the same." : "boundaries are different.");
+        
+        // sorting each partition gives the sorted array
+        for (int p = 0; p < numberOfPartitions; p++) {
+            Arrays.sort(array2, partitioned[p], partitioned[p+1]);
+        }
+        System.out.println(Arrays.equals(array, array2) ? "partitions have the same elements." : "partitions are different.");
+    }
+}
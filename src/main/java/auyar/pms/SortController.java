@@ -0,0 +1,184 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Cooperative cancellation and deadline for a parallel sort
+ *
+ * A controller is passed to the parallelMergeSort methods of the parallel engines.
+ * Sorting threads check the controller between merge levels (checkpoint method).
+ * When the sort is cancelled or its deadline expires,
+ * the first thread that notices it breaks the barrier, so that the other threads leave promptly.
+ * Then the calling thread gets a CancellationException.
+ *
+ * If a sorting thread fails with an exception, that exception is rethrown in the calling thread.
+ * In both cases, the contents of the array are unspecified.
+ * Every sort creates its own threads and barrier, so the engines can be used again afterwards.
+ * A controller is meant for one sort call. Once cancelled, it stays cancelled.
+ *
+ * @author Ahmet Uyar
+ */
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class SortController {
+
+    private volatile boolean cancelled;
+    private final boolean hasDeadline;
+    private final long deadline;
+
+    /**
+     * a controller without a deadline. The sort runs until it completes or it is cancelled.
+     */
+    public SortController() {
+        this.hasDeadline = false;
+        this.deadline = 0;
+    }
+
+    /**
+     * a controller with a deadline. The deadline starts counting when the controller is created.
+     * @param timeout maximum time the sort is allowed to run
+     * @param unit time unit of the timeout argument
+     */
+    public SortController(long timeout, TimeUnit unit) {
+        this.hasDeadline = true;
+        this.deadline = System.nanoTime() + unit.toNanos(timeout);
+    }
+
+    /**
+     * request the sort to stop. Sorting threads stop at their next checkpoint.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return true if this controller has a deadline and it has passed
+     */
+    public boolean isExpired() {
+        return hasDeadline && remainingNanos() <= 0;
+    }
+
+    /**
+     * called by sorting threads between merge levels
+     * throws CancellationException if the sort is cancelled or its deadline has passed
+     */
+    public void checkpoint() {
+        if(cancelled)
+            throw new CancellationException("sort cancelled");
+        if(isExpired())
+            throw new CancellationException("sort deadline expired");
+    }
+
+    private long remainingNanos() {
+        return deadline - System.nanoTime();
+    }
+
+    /**
+     * wait at the barrier. If there is a deadline, do not wait longer than the remaining time.
+     * When the time runs out, the barrier is broken and TimeoutException is thrown.
+     */
+    void await(CyclicBarrier barrier) throws InterruptedException, BrokenBarrierException, TimeoutException {
+        if(hasDeadline)
+            barrier.await(Math.max(remainingNanos(), 0), TimeUnit.NANOSECONDS);
+        else
+            barrier.await();
+    }
+
+    /**
+     * break the barrier so that the threads waiting on it, and the ones arriving later,
+     * get BrokenBarrierException instead of waiting forever.
+     * CyclicBarrier breaks itself when a thread is interrupted at the barrier.
+     * reset method can not be used, since threads arriving after a reset would wait forever.
+     */
+    static void breakBarrier(CyclicBarrier barrier) {
+        Thread.currentThread().interrupt();
+        try {
+            barrier.await();
+        } catch (InterruptedException | BrokenBarrierException ex) {
+            // expected, the barrier is broken now
+        }
+        Thread.interrupted();
+    }
+
+    /**
+     * the calling thread waits for all sorting threads to finish.
+     * If the calling thread is interrupted, the sort is cancelled,
+     * sorting threads are interrupted and waited for,
+     * interrupt status of the calling thread is restored and CancellationException is thrown.
+     */
+    void joinAll(Thread threads[]) {
+        boolean interrupted = false;
+        for (int i = 0; i < threads.length; i++) {
+            while(true) {
+                try {
+                    threads[i].join();
+                    break;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                    cancel();
+                    for (int j = 0; j < threads.length; j++)
+                        threads[j].interrupt();
+                }
+            }
+        }
+
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("sort cancelled, calling thread interrupted");
+        }
+    }
+
+    /**
+     * rethrow the failure of sorting threads in the calling thread
+     * BrokenBarrierException is only a consequence of another thread's failure,
+     * so the first failure that is not a BrokenBarrierException is reported
+     *
+     * @param failures failures of sorting threads, null for the threads that completed normally
+     */
+    static void rethrow(Throwable failures[]) {
+        Throwable cause = null;
+        for (int i = 0; i < failures.length; i++) {
+            if(failures[i] == null)
+                continue;
+            if(cause == null || (cause instanceof BrokenBarrierException))
+                cause = failures[i];
+        }
+
+        if(cause == null)
+            return;
+        if(cause instanceof CancellationException)
+            throw (CancellationException)cause;
+        if(cause instanceof TimeoutException || cause instanceof InterruptedException) {
+            CancellationException ce = new CancellationException(
+                    (cause instanceof TimeoutException) ? "sort deadline expired" : "sorting thread interrupted");
+            ce.initCause(cause);
+            throw ce;
+        }
+        if(cause instanceof RuntimeException)
+            throw (RuntimeException)cause;
+        if(cause instanceof Error)
+            throw (Error)cause;
+        throw new IllegalStateException("parallel sort failed", cause);
+    }
+}
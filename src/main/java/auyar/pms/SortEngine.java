@@ -0,0 +1,89 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Sorting engines that can be selected by name, for example from the command line
+ * 
+ * Each engine sorts a full long array with the given number of threads. 
+ * JDK engines are included for comparison. JDK_PARALLEL uses the common ForkJoin pool, 
+ * so its number of threads can not be set. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.Arrays;
+
+public enum SortEngine {
+	
+	DTM2 {
+		public void sort(long array[], int numberOfThreads) {
+			MergeSortWithBarriersDTM2.parallelMergeSort(array, numberOfThreads);
+		}
+	},
+	SCHEDULED {
+		public void sort(long array[], int numberOfThreads) {
+			MergeSortWithBarriersScheduled.parallelMergeSort(array, numberOfThreads);
+		}
+	},
+	STM2 {
+		public void sort(long array[], int numberOfThreads) {
+			MergeSortWithBarriersSTM2.parallelMergeSort(array, numberOfThreads);
+		}
+	},
+	FORKJOIN_STM2 {
+		public void sort(long array[], int numberOfThreads) {
+			MergeSortWithForkJoinSTM2.parallelMergeSort(array, numberOfThreads);
+		}
+	},
+	FORKJOIN_DTM {
+		public void sort(long array[], int numberOfThreads) {
+			MergeSortWithForkJoinDTM.parallelMergeSort(array, numberOfThreads);
+		}
+	},
+	KEY_RANGE {
+		public void sort(long array[], int numberOfThreads) {
+			KeyRangeSort.sort(array, numberOfThreads);
+		}
+	},
+	JDK_PARALLEL {
+		public void sort(long array[], int numberOfThreads) {
+			Arrays.parallelSort(array);
+		}
+	},
+	JDK_SEQUENTIAL {
+		public void sort(long array[], int numberOfThreads) {
+			Arrays.sort(array);
+		}
+	};
+
+	/**
+	 * @param array the array to be sorted. we assume the array is full. 
+	 * @param numberOfThreads user specifies the number of threads that will sort
+	 */
+	public abstract void sort(long array[], int numberOfThreads);
+
+	/**
+	 * find an engine by its name. names are not case sensitive and '-' can be used instead of '_'.
+	 * throws IllegalArgumentException if there is no such engine
+	 */
+	public static SortEngine forName(String name) {
+		try {
+			return valueOf(name.trim().toUpperCase().replace('-', '_'));
+		} catch (IllegalArgumentException ex) {
+			throw new IllegalArgumentException("unknown sort engine: " + name + ". engines: " + Arrays.toString(values()));
+		}
+	}
+}
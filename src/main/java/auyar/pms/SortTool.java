@@ -0,0 +1,476 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Command line tool that sorts a file of long values
+ * 
+ * usage: java auyar.pms.SortTool [options] input output
+ *   --format binary-le | binary-be | text   format of the input and output files (default binary-le)
+ *   --engine name                           one of the SortEngine values (default dtm2)
+ *   --threads n                             number of sorting threads (default: number of processors)
+ * 
+ * Binary files contain 64 bit integers, little endian or big endian. 
+ * Text files contain one decimal integer in each line. Empty lines are skipped. 
+ * 
+ * Files are read and written by several threads. Each thread handles a range of the file. 
+ *   binary files are memory mapped and values are copied by bulk operations, 
+ *   in segments of at most SEGMENT_SIZE bytes. 
+ *   text files are mapped and divided into chunks at line ends. 
+ *   each thread counts the lines of its chunks first, then parses them to their positions in the array. 
+ *   text output is formatted into direct buffers and written with positional channel writes, 
+ *   after each thread counts the bytes of its range in a first pass, like the lines of text input. 
+ * 
+ * The duration of each phase (read, sort and write) is printed. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class SortTool {
+	
+	// largest region that is mapped at once, a multiple of 8 bytes
+	static final int SEGMENT_SIZE = 1 << 30;
+	// size of the direct buffer of a text writing thread
+	static final int WRITE_BUFFER_SIZE = 1 << 20;
+	
+	public enum Format {
+		BINARY_LE, BINARY_BE, TEXT
+	}
+	
+	/**
+	 * a thread of a file operation. its failure is rethrown in the calling thread.
+	 */
+	private static abstract class FileTask extends Thread {
+		private Throwable failure;
+		
+		FileTask(int threadID) {
+			super("thread " + threadID);
+		}
+		
+		abstract void work() throws IOException;
+		
+		@Override
+		public void run() {
+			try {
+				work();
+			} catch (Throwable ex) {
+				failure = ex;
+			}
+		}
+	}
+	
+	private static void runAll(FileTask threads[]) throws IOException {
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].start();
+		}
+		new SortController().joinAll(threads);
+		Throwable failures[] = new Throwable[threads.length];
+		for (int i = 0; i < threads.length; i++) {
+			failures[i] = threads[i].failure;
+			// file errors are reported as they are
+			if(failures[i] instanceof IOException)
+				throw (IOException)failures[i];
+		}
+		SortController.rethrow(failures);
+	}
+	
+	/**
+	 * copies values [first, last) between the file and the array through mapped segments
+	 */
+	private static class BinaryTransfer extends FileTask {
+		private FileChannel channel;
+		private long array[];
+		private int first;
+		private int last;
+		private ByteOrder order;
+		private boolean write;
+		
+		BinaryTransfer(int threadID, FileChannel channel, long array[], int first, int last, ByteOrder order, boolean write) {
+			super(threadID);
+			this.channel = channel;
+			this.array = array;
+			this.first = first;
+			this.last = last;
+			this.order = order;
+			this.write = write;
+		}
+		
+		@Override
+		void work() throws IOException {
+			int segmentLength = SEGMENT_SIZE / 8;
+			for (int index = first; index < last; index += segmentLength) {
+				int length = Math.min(segmentLength, last - index);
+				MappedByteBuffer segment = channel.map(write ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 
+						index * 8L, length * 8L);
+				segment.order(order);
+				if(write)
+					segment.asLongBuffer().put(array, index, length);
+				else
+					segment.asLongBuffer().get(array, index, length);
+			}
+		}
+	}
+	
+	/**
+	 * counts and parses the lines of text chunks, each chunk is {start, end} in the file
+	 */
+	private static class TextParser extends FileTask {
+		private FileChannel channel;
+		private long chunks[][];
+		private int firstChunk;
+		private int lastChunk;
+		private long array[];
+		private int arrayStart;
+		private int count;
+		
+		TextParser(int threadID, FileChannel channel, long chunks[][], int firstChunk, int lastChunk) {
+			super(threadID);
+			this.channel = channel;
+			this.chunks = chunks;
+			this.firstChunk = firstChunk;
+			this.lastChunk = lastChunk;
+		}
+		
+		@Override
+		void work() throws IOException {
+			int index = arrayStart;
+			for (int c = firstChunk; c < lastChunk; c++) {
+				long start = chunks[c][0];
+				MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, chunks[c][1] - start);
+				if(array == null)
+					count += countValues(chunk);
+				else
+					index = parse(chunk, start, array, index);
+			}
+		}
+	}
+	
+	/**
+	 * counts the bytes of values [first, last) as text, 
+	 * or writes them starting from the given file position
+	 */
+	private static class TextWriter extends FileTask {
+		private FileChannel channel;
+		private long array[];
+		private int first;
+		private int last;
+		private boolean write;
+		private long position;
+		private long length;
+		
+		TextWriter(int threadID, FileChannel channel, long array[], int first, int last) {
+			super(threadID);
+			this.channel = channel;
+			this.array = array;
+			this.first = first;
+			this.last = last;
+		}
+		
+		@Override
+		void work() throws IOException {
+			if(!write) {
+				for (int i = first; i < last; i++) {
+					length += textLength(array[i]) + 1;
+				}
+				return;
+			}
+			
+			ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+			byte digits[] = new byte[20];
+			long filePosition = position;
+			for (int i = first; i < last; i++) {
+				if(buffer.remaining() < 21)
+					filePosition = flush(buffer, filePosition);
+				long value = array[i];
+				int d = digits.length;
+				// digits are produced from negative values, so that Long.MIN_VALUE needs no special case
+				long negative = (value < 0) ? value : -value;
+				do {
+					digits[--d] = (byte)('0' - (negative % 10));
+					negative /= 10;
+				} while(negative != 0);
+				if(value < 0)
+					buffer.put((byte)'-');
+				buffer.put(digits, d, digits.length - d);
+				buffer.put((byte)'\n');
+			}
+			flush(buffer, filePosition);
+		}
+		
+		private long flush(ByteBuffer buffer, long filePosition) throws IOException {
+			buffer.flip();
+			while(buffer.hasRemaining())
+				filePosition += channel.write(buffer, filePosition);
+			buffer.clear();
+			return filePosition;
+		}
+	}
+	
+	static int textLength(long value) {
+		int length = (value < 0) ? 2 : 1;
+		long negative = (value < 0) ? value : -value;
+		while(negative <= -10) {
+			negative /= 10;
+			length++;
+		}
+		return length;
+	}
+	
+	private static int countValues(ByteBuffer chunk) {
+		int count = 0;
+		boolean inLine = false;
+		while(chunk.hasRemaining()) {
+			byte b = chunk.get();
+			if(b == '\n') {
+				inLine = false;
+			} else if(!inLine && !isSpace(b)) {
+				inLine = true;
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	private static boolean isSpace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+	
+	/**
+	 * parse one value from each non empty line
+	 * @param start position of the chunk in the file, for error messages
+	 * @return the index after the last parsed value
+	 */
+	private static int parse(ByteBuffer chunk, long start, long array[], int index) {
+		int limit = chunk.limit();
+		int p = 0;
+		while(p < limit) {
+			byte b = chunk.get(p);
+			if(isSpace(b) || b == '\n') {
+				p++;
+				continue;
+			}
+			
+			int lineStart = p;
+			boolean negative = (b == '-');
+			if(negative || b == '+')
+				p++;
+			// accumulate negatively like Long.parseLong, so that Long.MIN_VALUE can be parsed
+			long bound = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+			long value = 0;
+			int digits = 0;
+			while(p < limit && (b = chunk.get(p)) >= '0' && b <= '9') {
+				int digit = b - '0';
+				if(value < bound / 10 || value * 10 < bound + digit)
+					throw new NumberFormatException("value out of range at byte " + (start + lineStart));
+				value = value * 10 - digit;
+				digits++;
+				p++;
+			}
+			while(p < limit && isSpace(chunk.get(p)))
+				p++;
+			if(digits == 0 || (p < limit && chunk.get(p) != '\n'))
+				throw new NumberFormatException("not an integer at byte " + (start + lineStart));
+			array[index++] = negative ? value : -value;
+		}
+		return index;
+	}
+	
+	/**
+	 * read a file of long values
+	 */
+	public static long[] read(Path input, Format format, int numberOfThreads) throws IOException {
+		try(FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(format != Format.TEXT) {
+				if(size % 8 != 0)
+					throw new IOException("size of a binary file must be a multiple of 8: " + size);
+				long array[] = new long[checkLength(size / 8)];
+				runAll(binaryTransfers(channel, array, format, numberOfThreads, false));
+				return array;
+			}
+			
+			long chunks[][] = textChunks(channel, numberOfThreads);
+			TextParser threads[] = new TextParser[Math.min(numberOfThreads, chunks.length)];
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new TextParser(i, channel, chunks, 
+						(int)((long)chunks.length * i / threads.length), (int)((long)chunks.length * (i+1) / threads.length));
+			}
+			runAll(threads);
+			
+			// second pass parses each chunk to its position
+			long total = 0;
+			for (int i = 0; i < threads.length; i++) {
+				total += threads[i].count;
+			}
+			long array[] = new long[checkLength(total)];
+			int arrayStart = 0;
+			for (int i = 0; i < threads.length; i++) {
+				TextParser parser = new TextParser(i, channel, chunks, threads[i].firstChunk, threads[i].lastChunk);
+				parser.array = array;
+				parser.arrayStart = arrayStart;
+				arrayStart += threads[i].count;
+				threads[i] = parser;
+			}
+			runAll(threads);
+			return array;
+		}
+	}
+	
+	/**
+	 * write a file of long values. an existing file is replaced.
+	 */
+	public static void write(Path output, long array[], Format format, int numberOfThreads) throws IOException {
+		try(RandomAccessFile file = new RandomAccessFile(output.toFile(), "rw")) {
+			FileChannel channel = file.getChannel();
+			if(format != Format.TEXT) {
+				file.setLength(array.length * 8L);
+				runAll(binaryTransfers(channel, array, format, numberOfThreads, true));
+				return;
+			}
+			
+			TextWriter threads[] = new TextWriter[numberOfThreads];
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = new TextWriter(i, channel, array, 
+						(int)((long)array.length * i / numberOfThreads), (int)((long)array.length * (i+1) / numberOfThreads));
+			}
+			runAll(threads);
+			
+			// second pass writes each range to its position
+			long position = 0;
+			for (int i = 0; i < threads.length; i++) {
+				TextWriter writer = new TextWriter(i, channel, array, threads[i].first, threads[i].last);
+				writer.write = true;
+				writer.position = position;
+				position += threads[i].length;
+				threads[i] = writer;
+			}
+			file.setLength(position);
+			runAll(threads);
+		}
+	}
+	
+	private static int checkLength(long length) throws IOException {
+		if(length > Integer.MAX_VALUE - 8)
+			throw new IOException("too many values for one array: " + length);
+		return (int)length;
+	}
+	
+	private static BinaryTransfer[] binaryTransfers(FileChannel channel, long array[], Format format, 
+			int numberOfThreads, boolean write) {
+		ByteOrder order = (format == Format.BINARY_LE) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		BinaryTransfer threads[] = new BinaryTransfer[numberOfThreads];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new BinaryTransfer(i, channel, array, 
+					(int)((long)array.length * i / numberOfThreads), (int)((long)array.length * (i+1) / numberOfThreads), order, write);
+		}
+		return threads;
+	}
+	
+	/**
+	 * divide a text file into chunks that end at line ends
+	 * there is at least one chunk for each thread, and no chunk is longer than SEGMENT_SIZE bytes 
+	 */
+	private static long[][] textChunks(FileChannel channel, int numberOfThreads) throws IOException {
+		long size = channel.size();
+		int numberOfChunks = (int)Math.max(numberOfThreads, (size + SEGMENT_SIZE/2 - 1) / (SEGMENT_SIZE/2));
+		long chunks[][] = new long[numberOfChunks][2];
+		ByteBuffer one = ByteBuffer.allocate(4096);
+		long start = 0;
+		for (int c = 0; c < numberOfChunks; c++) {
+			long end = (c == numberOfChunks-1) ? size : Math.max(start, size * (c+1) / numberOfChunks);
+			// move the end after the next line end
+			while(end > 0 && end < size) {
+				one.clear();
+				int read = channel.read(one, end - 1);
+				int newLine = -1;
+				for (int i = 0; i < read && newLine < 0; i++) {
+					if(one.get(i) == '\n')
+						newLine = i;
+				}
+				if(newLine >= 0) {
+					end = end - 1 + newLine + 1;
+					break;
+				}
+				end = Math.min(size, end - 1 + read + 1);
+			}
+			chunks[c][0] = start;
+			chunks[c][1] = end;
+			if(end - start > SEGMENT_SIZE)
+				throw new IOException("line is too long near byte " + start);
+			start = end;
+		}
+		return chunks;
+	}
+	
+	private static void usage(String message) {
+		System.out.println(message);
+		System.out.println("usage: java auyar.pms.SortTool [--format binary-le|binary-be|text] [--engine name] [--threads n] input output");
+		System.out.println("engines: " + java.util.Arrays.toString(SortEngine.values()));
+		System.exit(1);
+	}
+	
+	public static void main(String args[]) throws IOException {
+		Format format = Format.BINARY_LE;
+		SortEngine engine = SortEngine.DTM2;
+		int numberOfThreads = Runtime.getRuntime().availableProcessors();
+		
+		int a = 0;
+		try {
+			for (; a < args.length - 2; a += 2) {
+				if(args[a].equals("--format"))
+					format = Format.valueOf(args[a+1].toUpperCase().replace('-', '_'));
+				else if(args[a].equals("--engine"))
+					engine = SortEngine.forName(args[a+1]);
+				else if(args[a].equals("--threads"))
+					numberOfThreads = Integer.parseInt(args[a+1]);
+				else
+					usage("unknown option: " + args[a]);
+			}
+		} catch (IllegalArgumentException ex) {
+			usage(ex.getMessage());
+		}
+		if(args.length - a != 2)
+			usage("input and output files are required");
+		if(numberOfThreads <= 0)
+			usage("number of threads must be positive: " + numberOfThreads);
+		Path input = Paths.get(args[a]);
+		Path output = Paths.get(args[a+1]);
+		
+		long startTime = System.currentTimeMillis();
+		long array[] = read(input, format, numberOfThreads);
+		long duration = System.currentTimeMillis() - startTime;
+		System.out.println("read " + array.length + " values: " + duration + " ms");
+		
+		startTime = System.currentTimeMillis();
+		engine.sort(array, numberOfThreads);
+		duration = System.currentTimeMillis() - startTime;
+		System.out.println("sort with " + engine + ", " + numberOfThreads + " threads: " + duration + " ms");
+		
+		startTime = System.currentTimeMillis();
+		write(output, array, format, numberOfThreads);
+		duration = System.currentTimeMillis() - startTime;
+		System.out.println("write: " + duration + " ms");
+	}
+}
@@ -0,0 +1,305 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Parallel verification of sorting results
+ * 
+ * MergeSortUtil.isSorted method is for small tests. It is sequential and prints messages. 
+ * This class checks two things in parallel and returns the result as an object: 
+ *   order: every element is less than or equal to the next one. 
+ *   permutation: the sorted array has the same elements as the input array. 
+ *     a fingerprint of the input is taken before sorting and compared with the fingerprint of the output. 
+ *     the fingerprint does not depend on the order of elements: 
+ *     it has the number of elements, their sum, their xor and the sum of their hashes. 
+ *     a lost or a duplicated element changes the fingerprint with a very high probability. 
+ * 
+ * Each thread checks one range of the array in one pass: 
+ * each element is added to the fingerprint and compared with the previous element. 
+ * It also compares its last element with the first element of the next range. 
+ * Sums of threads are added by the calling thread. 
+ * 
+ * A verifier object can be used to check only some of the sorts in production: 
+ *   shouldVerify method returns true once in every period calls. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SortVerifier {
+
+    /**
+     * fingerprint of the multiset of elements in an array
+     */
+    public static class Fingerprint {
+        private final long count;
+        private final long sum;
+        private final long xor;
+        private final long hashSum;
+
+        Fingerprint(long count, long sum, long xor, long hashSum) {
+            this.count = count;
+            this.sum = sum;
+            this.xor = xor;
+            this.hashSum = hashSum;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof Fingerprint))
+                return false;
+            Fingerprint f = (Fingerprint)other;
+            return count == f.count && sum == f.sum && xor == f.xor && hashSum == f.hashSum;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hashSum ^ sum);
+        }
+
+        @Override
+        public String toString() {
+            return "count: " + count + ", sum: " + sum + ", xor: " + xor + ", hash sum: " + hashSum;
+        }
+    }
+
+    /**
+     * result of a verification
+     */
+    public static class Result {
+        private final int firstUnsortedIndex;
+        private final long unsortedPairs;
+        private final Fingerprint expected;
+        private final Fingerprint actual;
+
+        Result(int firstUnsortedIndex, long unsortedPairs, Fingerprint expected, Fingerprint actual) {
+            this.firstUnsortedIndex = firstUnsortedIndex;
+            this.unsortedPairs = unsortedPairs;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        /**
+         * @return true if the array is sorted in increasing order
+         */
+        public boolean isSorted() {
+            return unsortedPairs == 0;
+        }
+
+        /**
+         * @return the first index i where array[i] > array[i+1], or -1 if the array is sorted
+         */
+        public int getFirstUnsortedIndex() {
+            return firstUnsortedIndex;
+        }
+
+        /**
+         * @return the number of indexes i where array[i] > array[i+1]
+         */
+        public long getUnsortedPairs() {
+            return unsortedPairs;
+        }
+
+        /**
+         * @return true if the fingerprints of the input and the output are equal, 
+         *         or no input fingerprint was given
+         */
+        public boolean isPermutation() {
+            return expected == null || expected.equals(actual);
+        }
+
+        public Fingerprint getFingerprint() {
+            return actual;
+        }
+
+        /**
+         * @return true if the array is sorted and it is a permutation of the input
+         */
+        public boolean isValid() {
+            return isSorted() && isPermutation();
+        }
+
+        @Override
+        public String toString() {
+            if(isValid())
+                return "array is sorted.";
+            String message = "";
+            if(!isSorted())
+                message += "not sorted: " + unsortedPairs + " unsorted pairs, the first one at index " + firstUnsortedIndex + ". ";
+            if(!isPermutation())
+                message += "not a permutation of the input: expected (" + expected + "), found (" + actual + ").";
+            return message;
+        }
+    }
+
+    /**
+     * each thread computes the fingerprint of its range and, if requested, checks its order
+     */
+    private static class RangeCheck extends Thread {
+        private long array[];
+        private int first;
+        private int last;
+        private boolean checkOrder;
+        private long sum, xor, hashSum;
+        private int firstUnsortedIndex = -1;
+        private long unsortedPairs;
+        private Throwable failure;
+
+        RangeCheck(int threadID, long array[], int first, int last, boolean checkOrder) {
+            super("thread " + threadID);
+            this.array = array;
+            this.first = first;
+            this.last = last;
+            this.checkOrder = checkOrder;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if(first == last)
+                    return;
+                // one pass: each element is added to the fingerprint and compared with the previous one
+                long previous = array[first];
+                for (int i = first; i < last; i++) {
+                    long value = array[i];
+                    sum += value;
+                    xor ^= value;
+                    hashSum += mix(value);
+                    if(checkOrder && previous > value)
+                        unsorted(i-1);
+                    previous = value;
+                }
+                
+                // the last element of the range is compared with the first element of the next range
+                if(checkOrder && last < array.length && previous > array[last])
+                    unsorted(last-1);
+            } catch (Throwable ex) {
+                failure = ex;
+            }
+        }
+
+        private void unsorted(int index) {
+            if(firstUnsortedIndex < 0)
+                firstUnsortedIndex = index;
+            unsortedPairs++;
+        }
+    }
+
+    /**
+     * finalizer of the SplitMix64 generator. it spreads the bits of a value over the whole long.
+     */
+    static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    private static RangeCheck[] check(long array[], int numberOfThreads, boolean checkOrder) {
+        int blockSize = array.length / numberOfThreads;
+        RangeCheck threads[] = new RangeCheck[numberOfThreads];
+        for (int i = 0; i < numberOfThreads; i++) {
+            int first = i * blockSize;
+            int last = (i == numberOfThreads-1) ? array.length : first + blockSize;
+            threads[i] = new RangeCheck(i, array, first, last, checkOrder);
+            threads[i].start();
+        }
+
+        new SortController().joinAll(threads);
+        Throwable failures[] = new Throwable[numberOfThreads];
+        for (int i = 0; i < threads.length; i++) {
+            failures[i] = threads[i].failure;
+        }
+        SortController.rethrow(failures);
+        return threads;
+    }
+
+    private static Fingerprint fingerprint(long length, RangeCheck threads[]) {
+        long sum = 0, xor = 0, hashSum = 0;
+        for (int i = 0; i < threads.length; i++) {
+            sum += threads[i].sum;
+            xor ^= threads[i].xor;
+            hashSum += threads[i].hashSum;
+        }
+        return new Fingerprint(length, sum, xor, hashSum);
+    }
+
+    /**
+     * compute the fingerprint of an array before it is sorted
+     * @param array input array
+     * @param numberOfThreads user specifies the number of threads
+     */
+    public static Fingerprint fingerprint(long array[], int numberOfThreads) {
+        return fingerprint(array.length, check(array, numberOfThreads, false));
+    }
+
+    /**
+     * check the order of a sorted array and compare its fingerprint with the fingerprint of the input
+     * @param array sorted array
+     * @param expected fingerprint of the input, or null if only the order is checked
+     * @param numberOfThreads user specifies the number of threads
+     */
+    public static Result verify(long array[], Fingerprint expected, int numberOfThreads) {
+        RangeCheck threads[] = check(array, numberOfThreads, true);
+
+        int firstUnsortedIndex = -1;
+        long unsortedPairs = 0;
+        for (int i = 0; i < threads.length; i++) {
+            if(firstUnsortedIndex < 0)
+                firstUnsortedIndex = threads[i].firstUnsortedIndex;
+            unsortedPairs += threads[i].unsortedPairs;
+        }
+        return new Result(firstUnsortedIndex, unsortedPairs, expected, fingerprint(array.length, threads));
+    }
+
+    private final int period;
+    private final AtomicLong calls = new AtomicLong();
+
+    /**
+     * a verifier for checking one sort in every period sorts
+     * @param period 1 checks every sort, 100 checks one in every 100 sorts
+     */
+    public SortVerifier(int period) {
+        if(period <= 0)
+            throw new IllegalArgumentException("period must be positive: " + period);
+        this.period = period;
+    }
+
+    /**
+     * @return true once in every period calls. it can be called from many threads.
+     */
+    public boolean shouldVerify() {
+        return calls.getAndIncrement() % period == 0;
+    }
+
+    public static void main(String args[]) {
+        int numberOfThreads = 4;
+        int arraySize = 8000003;
+        long array[] = new long[arraySize];
+        MergeSortUtil.arrayInit(array, 20);
+
+        long startTime = System.currentTimeMillis();
+        Fingerprint before = fingerprint(array, numberOfThreads);
+        MergeSortWithBarriersDTM2.parallelMergeSort(array, numberOfThreads);
+        Result result = verify(array, before, numberOfThreads);
+        long duration = System.currentTimeMillis() - startTime;
+        System.out.println("sorting and verification time: "+duration);
+        System.out.println(result);
+
+        // a lost element is detected even when the array is sorted
+        array[10] = array[11];
+        System.out.println(verify(array, before, numberOfThreads));
+    }
+}
@@ -0,0 +1,221 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Sorting an array that has a sorted prefix and an unsorted tail
+ * 
+ * When new elements are appended to a sorted array, 
+ * sorting the whole array again takes n*log(n) time. 
+ * This class sorts only the tail and merges it with the prefix: 
+ *   1. the tail is copied to a buffer and sorted with MergeSortWithBarriersDTM2. 
+ *   2. prefix elements smaller than the smallest tail element are already in place. 
+ *      the rest of the prefix and the tail are merged in parallel. 
+ * 
+ * Parallel merge: 
+ *   the merged output is divided into equal parts, one part for each thread. 
+ *   co-ranking finds how many elements of each part come from the prefix and the tail. 
+ *   prefix elements move right, since tail elements are placed before them. 
+ *   each thread merges backward, from the end of its part, so it never overwrites its own unread prefix elements. 
+ *   but the start of a thread's prefix piece may lie in the parts of the threads before it. 
+ *   so each thread first saves those prefix elements to a buffer. after a barrier, all threads merge. 
+ *   a saved piece is not longer than the number of tail elements before that part. 
+ *   so all prefix moves are done by the merging threads in parallel. 
+ * 
+ * Extra memory is proportional to the tail, not to the whole array: 
+ * the sorted tail, and the saved prefix elements, at most (numberOfThreads-1) times the tail length. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+public class SortedAppend extends Thread {
+	
+    private CyclicBarrier barrier;
+    private long array[];
+    private long tail[];
+    private long saved[];
+    private int prefixStart;
+    private int prefixEnd;
+    private int savedStart;
+    private int tailStart;
+    private int tailEnd;
+    private int out;
+    private SortController controller;
+    private Throwable failure;
+    
+    /**
+     * merges array[prefixStart, prefixEnd) and tail[tailStart, tailEnd) into the array starting at out
+     * prefix elements before out are saved to saved[savedStart, ...) before the barrier
+     */
+    public SortedAppend(int threadID, CyclicBarrier barrier, long array[], long tail[], long saved[], 
+    		int prefixStart, int prefixEnd, int savedStart, int tailStart, int tailEnd, int out, SortController controller) {
+        super("thread " + threadID);
+        this.barrier = barrier;
+        this.array = array;
+        this.tail = tail;
+        this.saved = saved;
+        this.prefixStart = prefixStart;
+        this.prefixEnd = prefixEnd;
+        this.savedStart = savedStart;
+        this.tailStart = tailStart;
+        this.tailEnd = tailEnd;
+        this.out = out;
+        this.controller = controller;
+    }
+    
+    @Override
+    public void run() {
+    	try {
+    		// prefix elements in the parts of the previous threads are saved, the others are merged in place
+    		int inPlaceStart = Math.max(prefixStart, Math.min(prefixEnd, out));
+    		int numberOfSaved = inPlaceStart - prefixStart;
+    		System.arraycopy(array, prefixStart, saved, savedStart, numberOfSaved);
+    		controller.checkpoint();
+    		controller.await(barrier);
+    		
+    		// backward merge, equal values are taken from the tail first, since the prefix comes first
+    		int index1 = prefixEnd - 1;
+    		int savedIndex = savedStart + numberOfSaved - 1;
+    		int index2 = tailEnd - 1;
+    		int index3 = out + (prefixEnd - prefixStart) + (tailEnd - tailStart) - 1;
+    		while(index2 >= tailStart) {
+    			long value;
+    			if(index1 >= inPlaceStart)
+    				value = array[index1];
+    			else if(savedIndex >= savedStart)
+    				value = saved[savedIndex];
+    			else
+    				break;
+    			
+    			if(value > tail[index2]) {
+    				array[index3--] = value;
+    				if(index1 >= inPlaceStart)
+    					index1--;
+    				else
+    					savedIndex--;
+    			} else {
+    				array[index3--] = tail[index2--];
+    			}
+    		}
+    		
+    		// remaining tail elements go to the start of the part
+    		System.arraycopy(tail, tailStart, array, out, index2 - tailStart + 1);
+    		// remaining prefix elements: in place ones end at index3, saved ones come before them
+    		int remainingInPlace = index1 - inPlaceStart + 1;
+    		System.arraycopy(array, inPlaceStart, array, index3 - remainingInPlace + 1, remainingInPlace);
+    		System.arraycopy(saved, savedStart, array, out, savedIndex - savedStart + 1);
+    	} catch (BrokenBarrierException ex) {
+    		// another thread has failed, its failure is reported
+    		failure = ex;
+    	} catch (Throwable ex) {
+    		failure = ex;
+    		SortController.breakBarrier(barrier);
+    	}
+    }
+    
+    /**
+     * sort an array whose prefix is already sorted, using all available processors
+     * @param array the array to be sorted. we assume the array is full.
+     * @param sortedPrefixLength array[0, sortedPrefixLength) is sorted
+     */
+    public static void sortedAppend(long array[], int sortedPrefixLength) {
+    	sortedAppend(array, sortedPrefixLength, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * sort an array whose prefix is already sorted
+     * @param array the array to be sorted. we assume the array is full.
+     * @param sortedPrefixLength array[0, sortedPrefixLength) is sorted
+     * @param numberOfThreads user specifies the number of threads that will sort and merge
+     */
+    public static void sortedAppend(long array[], int sortedPrefixLength, int numberOfThreads) {
+    	if(sortedPrefixLength < 0 || sortedPrefixLength > array.length)
+    		throw new IllegalArgumentException("sorted prefix length must be between 0 and " + array.length 
+    				+ ": " + sortedPrefixLength);
+    	if(sortedPrefixLength == array.length)
+    		return;
+    	
+    	long tail[] = Arrays.copyOfRange(array, sortedPrefixLength, array.length);
+    	MergeSortWithBarriersDTM2.parallelMergeSort(tail, numberOfThreads);
+    	
+    	// prefix elements smaller than the smallest tail element do not move
+    	int first = MergeSortUtil.upperBound(array, 0, sortedPrefixLength, tail[0]);
+    	int prefixLength = sortedPrefixLength - first;
+    	if(prefixLength == 0) {
+    		System.arraycopy(tail, 0, array, sortedPrefixLength, tail.length);
+    		return;
+    	}
+    	
+    	// part p gets merged elements [ks[p], ks[p+1]), is[p] of them are from the prefix
+    	int total = prefixLength + tail.length;
+    	int ks[] = new int[numberOfThreads + 1];
+    	int is[] = new int[numberOfThreads + 1];
+    	for (int p = 0; p <= numberOfThreads; p++) {
+    		ks[p] = (int)((long)total * p / numberOfThreads);
+    		is[p] = MergeSortUtil.coRank(array, first, prefixLength, tail, 0, tail.length, ks[p]);
+    	}
+    	
+    	// prefix elements of part p that are before its output start are saved, savedStarts[p] is their place
+    	int savedStarts[] = new int[numberOfThreads + 1];
+    	for (int p = 0; p < numberOfThreads; p++) {
+    		savedStarts[p+1] = savedStarts[p] + Math.max(0, Math.min(is[p+1], ks[p]) - is[p]);
+    	}
+    	long saved[] = new long[savedStarts[numberOfThreads]];
+    	
+    	SortController controller = new SortController();
+    	CyclicBarrier barrier = new CyclicBarrier(numberOfThreads);
+    	SortedAppend threads[] = new SortedAppend[numberOfThreads];
+    	for (int p = 0; p < numberOfThreads; p++) {
+    		threads[p] = new SortedAppend(p, barrier, array, tail, saved, first + is[p], first + is[p+1], savedStarts[p], 
+    				ks[p] - is[p], ks[p+1] - is[p+1], first + ks[p], controller);
+    		threads[p].start();
+    	}
+    	
+    	controller.joinAll(threads);
+    	Throwable failures[] = new Throwable[numberOfThreads];
+    	for (int i = 0; i < threads.length; i++) {
+    		failures[i] = threads[i].failure;
+    	}
+    	SortController.rethrow(failures);
+    }
+    
+    public static void main(String args[]) {
+        int numberOfThreads = 4;
+        int arraySize = 8000003;
+        int tailSize = 400000;
+        long array[] = new long[arraySize];
+        long array2[] = new long[arraySize];
+        
+        MergeSortUtil.arrayInit(array, 20);
+        Arrays.sort(array, 0, arraySize - tailSize);
+        System.arraycopy(array, 0, array2, 0, arraySize);
+        
+        long startTime = System.currentTimeMillis();
+        MergeSortWithBarriersDTM2.parallelMergeSort(array2, numberOfThreads);
+        long duration = System.currentTimeMillis() - startTime;
+        System.out.println("sorting the whole array: " + duration);
+        
+        startTime = System.currentTimeMillis();
+        sortedAppend(array, arraySize - tailSize, numberOfThreads);
+        duration = System.currentTimeMillis() - startTime;
+        System.out.println("sorting the tail and merging: " + duration);
+        
+        MergeSortUtil.isSorted(array);
+    }
+}
@@ -0,0 +1,386 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Compressed format for sorted arrays
+ * 
+ * Sorted arrays are written for spilling sorted runs and for sending sorting results. 
+ * Consecutive values of a sorted array are close to each other, 
+ * so the differences (deltas) need much less than 8 bytes. 
+ * 
+ * Format: 
+ *   the array is divided into blocks of blockSize elements. 
+ *   the first value of each block is kept in the block index with the start of the block's data. 
+ *   other values of a block are written as deltas from the previous value, with varint encoding: 
+ *     7 bits in each byte, the lowest bits first. the highest bit is 1 if more bytes follow. 
+ *   deltas of sorted arrays are never negative. 
+ *   unsorted arrays can also be encoded, but negative deltas take 10 bytes. 
+ * 
+ *   header: length (int), blockSize (int), numberOfBlocks (int)
+ *   block index: for each block, first value (long) and data offset (int)
+ *   data: deltas of all blocks 
+ * 
+ * Encoding is parallel. Each thread encodes a range of blocks in two passes: 
+ *   first, it computes the encoded sizes of its blocks. 
+ *   then the barrier action computes the offsets of all blocks and allocates the output. 
+ *   finally, each thread writes its blocks. 
+ * 
+ * A Decoder reads the values in order as a PrimitiveIterator.OfLong. 
+ * It can seek to a value by a binary search on the block index. 
+ * merge method merges any number of decoders, or other iterators, into a LongConsumer. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.function.LongConsumer;
+
+public class SortedRunCodec {
+	
+	static final int DEFAULT_BLOCK_SIZE = 1024;
+	static final int HEADER_SIZE = 12;
+	static final int INDEX_ENTRY_SIZE = 12;
+
+	/**
+	 * shared state of the encoding threads
+	 */
+	private static class Encoding implements Runnable {
+		private long array[];
+		private int blockSize;
+		private int numberOfBlocks;
+		private int blockSizes[];
+		private byte encoded[];
+		
+		Encoding(long array[], int blockSize) {
+			this.array = array;
+			this.blockSize = blockSize;
+			this.numberOfBlocks = (array.length + blockSize - 1) / blockSize;
+			this.blockSizes = new int[numberOfBlocks];
+		}
+
+		/**
+		 * barrier action: blockSizes become data offsets and the output is allocated
+		 */
+		@Override
+		public void run() {
+			long offset = 0;
+			for (int b = 0; b < numberOfBlocks; b++) {
+				int size = blockSizes[b];
+				blockSizes[b] = (int)offset;
+				offset += size;
+			}
+			long total = HEADER_SIZE + (long)numberOfBlocks * INDEX_ENTRY_SIZE + offset;
+			if(total > Integer.MAX_VALUE - 8)
+				throw new IllegalArgumentException("encoded array is too large: " + total + " bytes");
+			encoded = new byte[(int)total];
+			ByteBuffer.wrap(encoded).putInt(array.length).putInt(blockSize).putInt(numberOfBlocks);
+		}
+	}
+
+	/**
+	 * each thread encodes a range of blocks
+	 */
+	private static class BlockEncoder extends Thread {
+		private CyclicBarrier barrier;
+		private Encoding encoding;
+		private int firstBlock;
+		private int lastBlock;
+		private Throwable failure;
+
+		BlockEncoder(int threadID, CyclicBarrier barrier, Encoding encoding, int firstBlock, int lastBlock) {
+			super("thread " + threadID);
+			this.barrier = barrier;
+			this.encoding = encoding;
+			this.firstBlock = firstBlock;
+			this.lastBlock = lastBlock;
+		}
+
+		@Override
+		public void run() {
+			try {
+				long array[] = encoding.array;
+				int blockSize = encoding.blockSize;
+				for (int b = firstBlock; b < lastBlock; b++) {
+					int size = 0;
+					int end = Math.min(array.length, (b+1)*blockSize);
+					for (int i = b*blockSize + 1; i < end; i++) {
+						size += varintSize(array[i] - array[i-1]);
+					}
+					encoding.blockSizes[b] = size;
+				}
+				barrier.await();
+				
+				byte encoded[] = encoding.encoded;
+				ByteBuffer index = ByteBuffer.wrap(encoded);
+				int dataStart = HEADER_SIZE + encoding.numberOfBlocks * INDEX_ENTRY_SIZE;
+				for (int b = firstBlock; b < lastBlock; b++) {
+					int first = b*blockSize;
+					int end = Math.min(array.length, first+blockSize);
+					int position = dataStart + encoding.blockSizes[b];
+					index.putLong(HEADER_SIZE + b*INDEX_ENTRY_SIZE, array[first]);
+					index.putInt(HEADER_SIZE + b*INDEX_ENTRY_SIZE + 8, encoding.blockSizes[b]);
+					for (int i = first + 1; i < end; i++) {
+						position = writeVarint(encoded, position, array[i] - array[i-1]);
+					}
+				}
+			} catch (BrokenBarrierException ex) {
+				// another thread has failed, its failure is reported
+				failure = ex;
+			} catch (Throwable ex) {
+				failure = ex;
+				SortController.breakBarrier(barrier);
+			}
+		}
+	}
+
+	static int varintSize(long value) {
+		int size = 1;
+		while((value & ~0x7FL) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	static int writeVarint(byte buffer[], int position, long value) {
+		while((value & ~0x7FL) != 0) {
+			buffer[position++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte)value;
+		return position;
+	}
+
+	/**
+	 * encode an array with the default block size
+	 * @param array sorted array
+	 * @param numberOfThreads user specifies the number of threads that will encode
+	 */
+	public static byte[] encode(long array[], int numberOfThreads) {
+		return encode(array, DEFAULT_BLOCK_SIZE, numberOfThreads);
+	}
+
+	/**
+	 * @param array sorted array
+	 * @param blockSize number of elements in each block. smaller blocks make seeking faster and the output larger.
+	 * @param numberOfThreads user specifies the number of threads that will encode
+	 */
+	public static byte[] encode(long array[], int blockSize, int numberOfThreads) {
+		if(blockSize <= 0)
+			throw new IllegalArgumentException("block size must be positive: " + blockSize);
+		
+		Encoding encoding = new Encoding(array, blockSize);
+		numberOfThreads = Math.max(1, Math.min(numberOfThreads, encoding.numberOfBlocks));
+		CyclicBarrier barrier = new CyclicBarrier(numberOfThreads, encoding);
+		
+		BlockEncoder threads[] = new BlockEncoder[numberOfThreads];
+		for (int i = 0; i < threads.length; i++) {
+			int firstBlock = (int)((long)encoding.numberOfBlocks * i / numberOfThreads);
+			int lastBlock = (int)((long)encoding.numberOfBlocks * (i+1) / numberOfThreads);
+			threads[i] = new BlockEncoder(i, barrier, encoding, firstBlock, lastBlock);
+			threads[i].start();
+		}
+		
+		new SortController().joinAll(threads);
+		Throwable failures[] = new Throwable[numberOfThreads];
+		for (int i = 0; i < threads.length; i++) {
+			failures[i] = threads[i].failure;
+		}
+		SortController.rethrow(failures);
+		return encoding.encoded;
+	}
+
+	/**
+	 * decode all values of an encoded array
+	 */
+	public static long[] decode(byte encoded[]) {
+		Decoder decoder = new Decoder(encoded);
+		long array[] = new long[decoder.length()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = decoder.nextLong();
+		}
+		return array;
+	}
+
+	/**
+	 * reads the values of an encoded array in order
+	 */
+	public static class Decoder implements PrimitiveIterator.OfLong {
+		private final byte encoded[];
+		private final ByteBuffer index;
+		private final int length;
+		private final int blockSize;
+		private final int numberOfBlocks;
+		private final int dataStart;
+		// index of the next value, its byte position and the previous value
+		private int next;
+		private int position;
+		private long value;
+
+		public Decoder(byte encoded[]) {
+			this.encoded = encoded;
+			this.index = ByteBuffer.wrap(encoded);
+			this.length = index.getInt(0);
+			this.blockSize = index.getInt(4);
+			this.numberOfBlocks = index.getInt(8);
+			this.dataStart = HEADER_SIZE + numberOfBlocks * INDEX_ENTRY_SIZE;
+		}
+
+		/**
+		 * number of values in the encoded array
+		 */
+		public int length() {
+			return length;
+		}
+
+		private long firstValue(int block) {
+			return index.getLong(HEADER_SIZE + block*INDEX_ENTRY_SIZE);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < length;
+		}
+
+		@Override
+		public long nextLong() {
+			if(next >= length)
+				throw new NoSuchElementException();
+			if(next % blockSize == 0) {
+				int block = next / blockSize;
+				value = firstValue(block);
+				position = dataStart + index.getInt(HEADER_SIZE + block*INDEX_ENTRY_SIZE + 8);
+			} else {
+				long delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = encoded[position++];
+					delta |= (long)(b & 0x7F) << shift;
+					shift += 7;
+				} while(b < 0);
+				value += delta;
+			}
+			next++;
+			return value;
+		}
+
+		/**
+		 * move to the first value that is greater than or equal to the key
+		 * the next call to nextLong returns that value. 
+		 * only the block that may contain the key is decoded. 
+		 */
+		public void seek(long key) {
+			// the last block whose first value is less than the key
+			int low = 0, high = numberOfBlocks;
+			while(low < high) {
+				int middle = (low + high) >>> 1;
+				if(firstValue(middle) < key)
+					low = middle + 1;
+				else
+					high = middle;
+			}
+			int block = Math.max(0, low - 1);
+			next = block * blockSize;
+			int end = Math.min(length, next + blockSize);
+			while(next < end) {
+				int current = next;
+				int currentPosition = position;
+				long previous = value;
+				if(nextLong() >= key) {
+					// step back, so that this value is returned again
+					next = current;
+					if(current % blockSize != 0) {
+						position = currentPosition;
+						value = previous;
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * merge sorted iterators into one sorted sequence
+	 * iterators are kept in a binary heap by their current values
+	 * @param runs sorted iterators, for example Decoder objects
+	 * @param sink receives the merged values in order
+	 */
+	public static void merge(PrimitiveIterator.OfLong runs[], LongConsumer sink) {
+		int heap[] = new int[runs.length];
+		long heads[] = new long[runs.length];
+		int size = 0;
+		for (int r = 0; r < runs.length; r++) {
+			if(runs[r].hasNext()) {
+				heads[r] = runs[r].nextLong();
+				heap[size++] = r;
+			}
+		}
+		for (int i = size/2 - 1; i >= 0; i--) {
+			siftDown(heap, heads, size, i);
+		}
+		
+		while(size > 0) {
+			int r = heap[0];
+			sink.accept(heads[r]);
+			if(runs[r].hasNext()) {
+				heads[r] = runs[r].nextLong();
+			} else {
+				heap[0] = heap[--size];
+			}
+			siftDown(heap, heads, size, 0);
+		}
+	}
+
+	private static void siftDown(int heap[], long heads[], int size, int i) {
+		int r = heap[i];
+		while(true) {
+			int child = 2*i + 1;
+			if(child >= size)
+				break;
+			if(child+1 < size && heads[heap[child+1]] < heads[heap[child]])
+				child++;
+			if(heads[heap[child]] >= heads[r])
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = r;
+	}
+
+	public static void main(String args[]) {
+		int numberOfThreads = 4;
+		int arraySize = 8000003;
+		long array[] = new long[arraySize];
+		WorkloadGenerator.fill(array, WorkloadGenerator.Distribution.SMALL_RANGE, 20, numberOfThreads);
+		MergeSortWithBarriersDTM2.parallelMergeSort(array, numberOfThreads);
+		
+		long startTime = System.currentTimeMillis();
+		byte encoded[] = encode(array, numberOfThreads);
+		long duration = System.currentTimeMillis() - startTime;
+		System.out.println("encoding time: " + duration + ", " + (arraySize*8L) + " bytes encoded in " + encoded.length + " bytes");
+		
+		startTime = System.currentTimeMillis();
+		long decoded[] = decode(encoded);
+		duration = System.currentTimeMillis() - startTime;
+		System.out.println("decoding time: " + duration);
+		System.out.println(java.util.Arrays.equals(array, decoded) ? "decoded array is equal." : "decoded array is not equal.");
+	}
+}
@@ -0,0 +1,254 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Parallel merge sort that streams the result of the last merge
+ * 
+ * MergeSortWithBarriersDTM2 writes the last merge to the auxiliary array and copies it back. 
+ * The caller can use the sorted array only after that. 
+ * This class stops MergeSortWithBarriersDTM2 when two sorted runs are left. 
+ * The last merge is not written back to the array, its result is given to the caller in order: 
+ * 
+ *   push mode (sort methods): 
+ *     the merged output is divided into chunks of chunkSize elements. 
+ *     merging threads take the next chunk from a counter, find its elements with MergeSortUtil.coRank 
+ *     and merge it into a chunk buffer. 
+ *     the calling thread gives the chunks to the consumer in order, while the next chunks are merged. 
+ *     there are 2*numberOfThreads chunk buffers, so memory use of the last merge is small. 
+ *     a merging thread waits for a free buffer when the consumer is slow. 
+ * 
+ *   pull mode (iterator method): 
+ *     the two runs are merged lazily by the returned iterator, one element at each call. 
+ * 
+ * The array holds the two sorted runs after sorting, not the merged result. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+public class StreamingMergeSort extends Thread {
+	
+	static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+	
+	/**
+	 * receives the sorted elements in chunks
+	 */
+	public interface ChunkConsumer {
+		/**
+		 * @param chunk sorted elements, the chunk array is reused after this method returns
+		 * @param length number of elements in the chunk
+		 */
+		void accept(long chunk[], int length);
+	}
+	
+	/**
+	 * shared state of the last merge
+	 */
+	private static class FinalMerge {
+		final long array[];
+		final int split;
+		final int chunkSize;
+		final int numberOfChunks;
+		final AtomicInteger nextChunk = new AtomicInteger();
+		// a merging thread needs a permit for each chunk. permits are returned when chunks are consumed
+		final Semaphore permits;
+		final ArrayBlockingQueue<long[]> buffers;
+		final AtomicReferenceArray<long[]> merged;
+		volatile boolean stopped;
+		
+		FinalMerge(long array[], int split, int chunkSize, int numberOfBuffers) {
+			this.array = array;
+			this.split = split;
+			this.chunkSize = chunkSize;
+			this.numberOfChunks = (int)(((long)array.length + chunkSize - 1) / chunkSize);
+			this.permits = new Semaphore(numberOfBuffers);
+			this.buffers = new ArrayBlockingQueue<long[]>(numberOfBuffers);
+			for (int i = 0; i < numberOfBuffers; i++) {
+				buffers.add(new long[chunkSize]);
+			}
+			this.merged = new AtomicReferenceArray<long[]>(numberOfChunks);
+		}
+	}
+	
+	private FinalMerge merge;
+	private Throwable failure;
+	
+	private StreamingMergeSort(int threadID, FinalMerge merge) {
+		super("thread " + threadID);
+		this.merge = merge;
+	}
+	
+	@Override
+	public void run() {
+		try {
+			long array[] = merge.array;
+			while(true) {
+				merge.permits.acquire();
+				int c = merge.nextChunk.getAndIncrement();
+				if(merge.stopped || c >= merge.numberOfChunks) {
+					merge.permits.release();
+					return;
+				}
+				
+				int k1 = c * merge.chunkSize;
+				int k2 = Math.min(array.length, k1 + merge.chunkSize);
+				int i1 = MergeSortUtil.coRank(array, 0, merge.split, array.length, k1);
+				int i2 = MergeSortUtil.coRank(array, 0, merge.split, array.length, k2);
+				long buffer[] = merge.buffers.poll();
+				MergeSortUtil.mergeRanges(array, buffer, i1, i2, merge.split+k1-i1, merge.split+k2-i2, 0);
+				
+				merge.merged.set(c, buffer);
+				synchronized (merge) {
+					merge.notifyAll();
+				}
+			}
+		} catch (Throwable ex) {
+			failure = ex;
+			merge.stopped = true;
+			synchronized (merge) {
+				merge.notifyAll();
+			}
+		}
+	}
+	
+	/**
+	 * sort the array and give the sorted elements to the consumer one by one
+	 * @param array the array to be sorted. it holds two sorted runs afterwards.
+	 * @param numberOfThreads user specifies the number of threads that will sort
+	 */
+	public static void sort(long array[], int numberOfThreads, LongConsumer consumer) {
+		sort(array, numberOfThreads, DEFAULT_CHUNK_SIZE, (chunk, length) -> {
+			for (int i = 0; i < length; i++) {
+				consumer.accept(chunk[i]);
+			}
+		});
+	}
+	
+	/**
+	 * sort the array and give the sorted elements to the consumer in chunks
+	 * throws CancellationException if the calling thread is interrupted. 
+	 * exceptions of the consumer and of merging threads are rethrown. 
+	 * @param array the array to be sorted. it holds two sorted runs afterwards.
+	 * @param numberOfThreads user specifies the number of threads that will sort
+	 * @param chunkSize number of elements in each chunk
+	 */
+	public static void sort(long array[], int numberOfThreads, int chunkSize, ChunkConsumer consumer) {
+		if(chunkSize <= 0)
+			throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+		
+		int split = MergeSortWithBarriersDTM2.sortToTwoRuns(array, numberOfThreads, new SortController());
+		FinalMerge merge = new FinalMerge(array, split, chunkSize, 2 * numberOfThreads);
+		StreamingMergeSort threads[] = new StreamingMergeSort[numberOfThreads];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new StreamingMergeSort(i, merge);
+			threads[i].start();
+		}
+		
+		try {
+			for (int c = 0; c < merge.numberOfChunks; c++) {
+				long chunk[];
+				synchronized (merge) {
+					while((chunk = merge.merged.get(c)) == null && !merge.stopped)
+						merge.wait();
+				}
+				if(chunk == null)
+					break;
+				
+				int length = Math.min(chunkSize, array.length - c * chunkSize);
+				consumer.accept(chunk, length);
+				merge.merged.set(c, null);
+				merge.buffers.add(chunk);
+				merge.permits.release();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			CancellationException ce = new CancellationException("calling thread interrupted");
+			ce.initCause(ex);
+			throw ce;
+		} finally {
+			// merging threads waiting for a permit wake up and see that the merge is stopped
+			merge.stopped = true;
+			merge.permits.release(numberOfThreads);
+			new SortController().joinAll(threads);
+		}
+		
+		Throwable failures[] = new Throwable[numberOfThreads];
+		for (int i = 0; i < threads.length; i++) {
+			failures[i] = threads[i].failure;
+		}
+		SortController.rethrow(failures);
+	}
+	
+	/**
+	 * sort the array into two runs and return an iterator that merges them lazily
+	 * @param array the array to be sorted. it holds two sorted runs afterwards.
+	 *        it must not be modified while the iterator is used.
+	 * @param numberOfThreads user specifies the number of threads that will sort
+	 */
+	public static PrimitiveIterator.OfLong iterator(long array[], int numberOfThreads) {
+		int split = MergeSortWithBarriersDTM2.sortToTwoRuns(array, numberOfThreads, new SortController());
+		return new PrimitiveIterator.OfLong() {
+			private int index1 = 0;
+			private int index2 = split;
+			
+			@Override
+			public boolean hasNext() {
+				return index1 < split || index2 < array.length;
+			}
+			
+			@Override
+			public long nextLong() {
+				if(index1 < split && (index2 >= array.length || array[index1] <= array[index2]))
+					return array[index1++];
+				if(index2 < array.length)
+					return array[index2++];
+				throw new NoSuchElementException();
+			}
+		};
+	}
+	
+	public static void main(String args[]) {
+		int numberOfThreads = 4;
+		int arraySize = 8000003;
+		long array[] = new long[arraySize];
+		MergeSortUtil.arrayInit(array, 20);
+		
+		long startTime = System.currentTimeMillis();
+		long previous[] = {Long.MIN_VALUE};
+		long unsorted[] = new long[1];
+		long firstChunk[] = new long[1];
+		sort(array, numberOfThreads, DEFAULT_CHUNK_SIZE, (chunk, length) -> {
+			if(firstChunk[0] == 0)
+				firstChunk[0] = System.currentTimeMillis();
+			for (int i = 0; i < length; i++) {
+				if(chunk[i] < previous[0])
+					unsorted[0]++;
+				previous[0] = chunk[i];
+			}
+		});
+		long duration = System.currentTimeMillis() - startTime;
+		System.out.println("first chunk after " + (firstChunk[0] - startTime) + " ms, all chunks after " + duration + " ms");
+		System.out.println(unsorted[0] == 0 ? "stream is sorted." : "stream is not sorted.");
+	}
+}
@@ -0,0 +1,236 @@
+package auyar.pms;
+/**
+ * Copyright 2017 Ahmet Uyar
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files 
+ * (the "Software"), to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, 
+ * and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, 
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, 
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, 
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Parallel generator of benchmark inputs
+ * 
+ * MergeSortUtil.arrayInit method fills an array with uniform random values by one thread. 
+ * This class fills arrays in parallel with several distributions. 
+ * Some of them are hard cases for some sorting algorithms, like few unique values or long sorted runs. 
+ * 
+ * Reproducibility: 
+ *   the array is divided into chunks of fixed size. 
+ *   each chunk has its own random generator that is seeded from the seed and the chunk number. 
+ *   therefore the same seed produces the same array with any number of threads. 
+ *   chunks are divided among the threads. 
+ * 
+ * Each distribution has one parameter. Its meaning is explained at the distribution. 
+ * 
+ * @author Ahmet Uyar
+ */
+import java.util.SplittableRandom;
+
+public class WorkloadGenerator extends Thread {
+	
+	// number of elements generated by one random generator
+	static final int CHUNK_SIZE = 1 << 16;
+	
+	public enum Distribution {
+		// random values from the whole long range. parameter is not used
+		UNIFORM(0),
+		// 0, 1, 2, ... parameter is not used
+		SORTED(0),
+		// n, n-1, ..., 1. parameter is not used
+		REVERSE_SORTED(0),
+		// sorted values where parameter percent of elements are swapped with other elements in their chunk
+		NEARLY_SORTED(1),
+		// parameter increasing runs of equal length: 0, 1, ..., m, 0, 1, ..., m, ...
+		SAWTOOTH(16),
+		// increasing in the first half, decreasing in the second half. parameter is not used
+		ORGAN_PIPE(0),
+		// random values from parameter distinct values
+		FEW_UNIQUE(16),
+		// random values 0, 1, 2, ... where value k appears with probability proportional to 1/(k+1)
+		// parameter is the number of distinct values
+		ZIPF(1 << 20),
+		// all elements are equal to parameter
+		ALL_EQUAL(42),
+		// uniform random values between 0 and parameter (exclusive)
+		SMALL_RANGE(1 << 16);
+		
+		private final long defaultParameter;
+		
+		Distribution(long defaultParameter) {
+			this.defaultParameter = defaultParameter;
+		}
+		
+		public long getDefaultParameter() {
+			return defaultParameter;
+		}
+	}
+
+    private long array[];
+    private Distribution distribution;
+    private long parameter;
+    private long seed;
+    private int firstChunk;
+    private int lastChunk;
+    private Throwable failure;
+    
+    public WorkloadGenerator(int threadID, long array[], Distribution distribution, long parameter, long seed, 
+    		int firstChunk, int lastChunk) {
+        super("thread " + threadID);
+        this.array = array;
+        this.distribution = distribution;
+        this.parameter = parameter;
+        this.seed = seed;
+        this.firstChunk = firstChunk;
+        this.lastChunk = lastChunk;
+    }
+
+    @Override
+    public void run() {
+    	try {
+    		for (int chunk = firstChunk; chunk < lastChunk; chunk++) {
+    			int first = chunk * CHUNK_SIZE;
+    			int last = (int)Math.min((long)first + CHUNK_SIZE, array.length);
+    			SplittableRandom random = new SplittableRandom(seed ^ (chunk * 0x9E3779B97F4A7C15L));
+    			fillChunk(random, first, last);
+    		}
+    	} catch (Throwable ex) {
+    		failure = ex;
+    	}
+    }
+    
+    private void fillChunk(SplittableRandom random, int first, int last) {
+    	int n = array.length;
+    	switch(distribution) {
+    	case UNIFORM:
+    		for (int i = first; i < last; i++)
+    			array[i] = random.nextLong();
+    		break;
+    	case SORTED:
+    		for (int i = first; i < last; i++)
+    			array[i] = i;
+    		break;
+    	case REVERSE_SORTED:
+    		for (int i = first; i < last; i++)
+    			array[i] = n - i;
+    		break;
+    	case NEARLY_SORTED:
+    		for (int i = first; i < last; i++)
+    			array[i] = i;
+    		// each swap moves two elements
+    		long swaps = (last - first) * parameter / 200;
+    		for (long s = 0; s < swaps; s++) {
+    			int i = first + random.nextInt(last - first);
+    			int j = first + random.nextInt(last - first);
+    			long temp = array[i];
+    			array[i] = array[j];
+    			array[j] = temp;
+    		}
+    		break;
+    	case SAWTOOTH:
+    		long runLength = Math.max(n / Math.max(parameter, 1), 1);
+    		for (int i = first; i < last; i++)
+    			array[i] = i % runLength;
+    		break;
+    	case ORGAN_PIPE:
+    		for (int i = first; i < last; i++)
+    			array[i] = (i < n/2) ? i : n - i;
+    		break;
+    	case FEW_UNIQUE:
+    		// distinct values are spread over the long range
+    		for (int i = first; i < last; i++)
+    			array[i] = random.nextLong(parameter) * 0x9E3779B97F4A7C15L;
+    		break;
+    	case ZIPF:
+    		// inverse of the continuous approximation of the cumulative distribution
+    		double logValues = Math.log(parameter + 1);
+    		for (int i = first; i < last; i++)
+    			array[i] = Math.min((long)Math.exp(random.nextDouble() * logValues) - 1, parameter - 1);
+    		break;
+    	case ALL_EQUAL:
+    		for (int i = first; i < last; i++)
+    			array[i] = parameter;
+    		break;
+    	case SMALL_RANGE:
+    		for (int i = first; i < last; i++)
+    			array[i] = random.nextLong(parameter);
+    		break;
+    	}
+    }
+
+    /**
+     * fill the array with the default parameter of the distribution
+     * @param array array to be filled
+     * @param distribution distribution of the values
+     * @param seed the same seed gives the same array
+     * @param numberOfThreads user specifies the number of threads that will fill the array
+     */
+    public static void fill(long array[], Distribution distribution, long seed, int numberOfThreads) {
+    	fill(array, distribution, distribution.getDefaultParameter(), seed, numberOfThreads);
+    }
+
+    /**
+     * fill the array
+     * @param array array to be filled
+     * @param distribution distribution of the values
+     * @param parameter parameter of the distribution
+     * @param seed the same seed gives the same array
+     * @param numberOfThreads user specifies the number of threads that will fill the array
+     */
+    public static void fill(long array[], Distribution distribution, long parameter, long seed, int numberOfThreads) {
+    	checkParameter(distribution, parameter);
+    	int chunks = (int)(((long)array.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    	int threadCount = Math.max(Math.min(numberOfThreads, chunks), 1);
+    	
+    	WorkloadGenerator threads[] = new WorkloadGenerator[threadCount];
+    	for (int i = 0; i < threadCount; i++) {
+    		int firstChunk = (int)((long)chunks * i / threadCount);
+    		int lastChunk = (int)((long)chunks * (i+1) / threadCount);
+			threads[i] = new WorkloadGenerator(i, array, distribution, parameter, seed, firstChunk, lastChunk);
+			threads[i].start();
+		}
+    	
+    	new SortController().joinAll(threads);
+    	Throwable failures[] = new Throwable[threadCount];
+    	for (int i = 0; i < threadCount; i++) {
+    		failures[i] = threads[i].failure;
+    	}
+    	SortController.rethrow(failures);
+    }
+    
+    /**
+     * throws IllegalArgumentException if the parameter is not valid for the distribution
+     */
+    private static void checkParameter(Distribution distribution, long parameter) {
+    	switch(distribution) {
+    	case FEW_UNIQUE:
+    	case ZIPF:
+    	case SMALL_RANGE:
+    		if(parameter <= 0)
+    			throw new IllegalArgumentException(distribution + " parameter must be positive: " + parameter);
+    		break;
+    	case NEARLY_SORTED:
+    		if(parameter < 0 || parameter > 100)
+    			throw new IllegalArgumentException(distribution + " parameter must be a percent between 0 and 100: " + parameter);
+    		break;
+    	default:
+    		break;
+    	}
+    }
+    
+    public static void main(String args[]) {
+    	int numberOfThreads = 4;
+    	long array[] = new long[20];
+    	for (Distribution distribution : Distribution.values()) {
+    		fill(array, distribution, 10, numberOfThreads);
+    		System.out.println(distribution + ": " + java.util.Arrays.toString(array));
+		}
+    }
+}